@@ -0,0 +1,47 @@
+package com.cn21.network.restfulapi;
+
+/**
+ * 类说明:根据内容长度及实际读取速度计算每次发送给Dart的数据块大小
+ * 目标是让每个数据块的读取耗时接近TARGET_CHUNK_INTERVAL_NS，
+ * 网络快时使用大块以减少主线程消息数量，网络慢时使用小块以尽快交付数据。
+ */
+class AdaptiveChunkSizer {
+    private static final long TARGET_CHUNK_INTERVAL_NS = 32_000_000L;
+    // 按内容长度估算初始块大小时期望的块数
+    private static final int INITIAL_CHUNK_COUNT = 16;
+
+    private final long mContentLength;
+    private long mReceivedBytes = 0;
+    private int mChunkSize;
+    // 平滑后的吞吐量(字节/纳秒)，小于0表示尚未测量
+    private double mBytesPerNano = -1;
+
+    AdaptiveChunkSizer(long contentLength) {
+        mContentLength = contentLength;
+        mChunkSize = (contentLength > 0)
+                ? ChunkBufferPool.alignChunkSize(contentLength / INITIAL_CHUNK_COUNT)
+                : ChunkBufferPool.MIN_CHUNK_SIZE;
+    }
+
+    /** 下一个数据块的大小 */
+    int nextChunkSize() {
+        if (mContentLength > 0) {
+            long remaining = mContentLength - mReceivedBytes;
+            if (remaining > 0 && remaining < mChunkSize) {
+                return ChunkBufferPool.alignChunkSize(remaining);
+            }
+        }
+        return mChunkSize;
+    }
+
+    /** 记录一个数据块的读取结果，并据此调整后续块大小 */
+    void onChunkRead(int bytes, long elapsedNanos) {
+        mReceivedBytes += bytes;
+        if (elapsedNanos <= 0) {
+            return;
+        }
+        double sample = (double) bytes / elapsedNanos;
+        mBytesPerNano = (mBytesPerNano < 0) ? sample : mBytesPerNano * 0.7 + sample * 0.3;
+        mChunkSize = ChunkBufferPool.alignChunkSize((long) (mBytesPerNano * TARGET_CHUNK_INTERVAL_NS));
+    }
+}
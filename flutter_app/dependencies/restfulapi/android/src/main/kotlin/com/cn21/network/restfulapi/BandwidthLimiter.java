@@ -0,0 +1,211 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.internal.http.UnrepeatableRequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * 类说明:后台请求的带宽限制
+ * 以令牌桶分别限制后台请求的上传及下载速度，在Okio的Source/Sink层面计量。
+ * 只在有前台(interactive或normal)请求正在执行时限速，没有前台请求时后台请求不受限制。
+ * 请求通过{@link #tag}标记为后台请求。
+ */
+class BandwidthLimiter implements Interceptor {
+    // 每次读写计量的最大字节数，避免一次消耗过多额度
+    private static final long MAX_STEP = 8 * 1024L;
+    // 等待额度时检查是否仍需限速的间隔
+    private static final long CHECK_INTERVAL_MS = 50;
+
+    /** 后台请求的标记 */
+    private static final class Background {
+        static final Background INSTANCE = new Background();
+    }
+
+    private final PriorityScheduler mScheduler;
+    private final TokenBucket mUpload = new TokenBucket();
+    private final TokenBucket mDownload = new TokenBucket();
+
+    BandwidthLimiter(PriorityScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /** 将background优先级的请求标记为后台请求 */
+    static Request.Builder tag(Request.Builder builder, int lane) {
+        if (lane == PriorityScheduler.BACKGROUND) {
+            builder.tag(Background.class, Background.INSTANCE);
+        }
+        return builder;
+    }
+
+    /**
+     * 设置限速
+     * @param uploadBytesPerSecond 上传速度，不大于0时不限制
+     * @param downloadBytesPerSecond 下载速度，不大于0时不限制
+     */
+    void setLimits(long uploadBytesPerSecond, long downloadBytesPerSecond) {
+        mUpload.setRate(uploadBytesPerSecond);
+        mDownload.setRate(downloadBytesPerSecond);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.tag(Background.class) == null) {
+            return chain.proceed(request);
+        }
+        RequestBody body = request.body();
+        if (body != null) {
+            request = request.newBuilder().method(request.method(), (body instanceof UnrepeatableRequestBody)
+                    ? new UnrepeatableThrottledRequestBody(body)
+                    : new ThrottledRequestBody(body)).build();
+        }
+        Response response = chain.proceed(request);
+        ResponseBody responseBody = response.body();
+        if (responseBody == null) {
+            return response;
+        }
+        return response.newBuilder().body(new ThrottledResponseBody(responseBody)).build();
+    }
+
+    /** 消耗额度，额度不足时等待，等待期间前台请求都结束后不再等待 */
+    private void throttle(TokenBucket bucket, long bytes) throws IOException {
+        if (!mScheduler.hasForegroundRunning()) {
+            return;
+        }
+        long waitMs = bucket.consume(bytes);
+        while (waitMs > 0 && mScheduler.hasForegroundRunning()) {
+            long step = Math.min(waitMs, CHECK_INTERVAL_MS);
+            try {
+                Thread.sleep(step);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            waitMs -= step;
+        }
+    }
+
+    /** 令牌桶，最多积累1秒的额度 */
+    private static class TokenBucket {
+        private long mRate = 0;
+        private double mTokens = 0;
+        private long mLastRefill = System.nanoTime();
+
+        synchronized void setRate(long rate) {
+            mRate = rate;
+            mTokens = Math.min(mTokens, Math.max(rate, 0));
+        }
+
+        /**
+         * 消耗额度
+         * @return 额度不足时需要等待的毫秒数
+         */
+        synchronized long consume(long bytes) {
+            if (mRate <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            mTokens = Math.min(mRate, mTokens + (now - mLastRefill) * mRate / 1e9);
+            mLastRefill = now;
+            mTokens -= bytes;
+            return (mTokens >= 0) ? 0 : (long) Math.ceil(-mTokens * 1000 / mRate);
+        }
+    }
+
+    /** 保留不能重放的标记，避免OkHttp重放限速后的body */
+    private class UnrepeatableThrottledRequestBody extends ThrottledRequestBody implements UnrepeatableRequestBody {
+        UnrepeatableThrottledRequestBody(RequestBody delegate) {
+            super(delegate);
+        }
+    }
+
+    private class ThrottledRequestBody extends RequestBody {
+        private final RequestBody mDelegate;
+
+        ThrottledRequestBody(RequestBody delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink throttled = Okio.buffer(new ThrottledSink(sink));
+            mDelegate.writeTo(throttled);
+            throttled.emit();
+        }
+    }
+
+    private class ThrottledSink extends ForwardingSink {
+        ThrottledSink(Sink delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            while (byteCount > 0) {
+                long step = Math.min(byteCount, MAX_STEP);
+                super.write(source, step);
+                byteCount -= step;
+                throttle(mUpload, step);
+            }
+        }
+    }
+
+    private class ThrottledResponseBody extends ResponseBody {
+        private final ResponseBody mDelegate;
+        private final BufferedSource mSource;
+
+        ThrottledResponseBody(ResponseBody delegate) {
+            mDelegate = delegate;
+            mSource = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long len = super.read(sink, Math.min(byteCount, MAX_STEP));
+                    if (len > 0) {
+                        throttle(mDownload, len);
+                    }
+                    return len;
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return mSource;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.cn21.network.restfulapi;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
+
+import okhttp3.Connection;
+import okhttp3.Dns;
+import okhttp3.Interceptor;
+import okhttp3.Route;
+
+/**
+ * 类说明:带缓存的DNS解析
+ * 解析结果在ttl内直接使用；超过ttl但未超过stale时间时仍返回旧结果，同时在后台重新解析。
+ * 返回的地址按IPv4/IPv6交替排列，最近一次成功连接的地址族排在最前。
+ * 配合{@link #socketFactory()}对第一个地址与另一个地址族的第一个地址竞速连接，
+ * 某个地址族不可用(如被丢弃而不是拒绝)时约{@link RacingSocketFactory#FALLBACK_DELAY_MS}后即改用另一个地址族，
+ * 不必等到连接超时，之后该host优先使用成功的地址族。
+ * 同一host同时只有一个解析，并发的未命中等待同一个结果。
+ * 缓存按最近使用淘汰，最多保留MAX_ENTRIES个host。
+ */
+class CachingDns implements Dns {
+    private static final long DEFAULT_TTL_MS = 60 * 1000L;
+    private static final long DEFAULT_STALE_MS = 10 * 60 * 1000L;
+    private static final int MAX_ENTRIES = 256;
+
+    private final Dns mDelegate;
+    private final long mTtlMs;
+    private final long mStaleMs;
+    private final Map<String, Entry> mCache = lruMap(MAX_ENTRIES);
+    // host -> 最近一次成功连接的是否为IPv6地址
+    private final Map<String, Boolean> mPreferIpv6 = lruMap(MAX_ENTRIES);
+    // 第一个地址 -> 竞速时连接的另一个地址族的地址
+    private final Map<InetAddress, InetAddress> mFallbacks = lruMap(MAX_ENTRIES);
+    // host -> 正在进行的解析
+    private final ConcurrentHashMap<String, FutureTask<List<InetAddress>>> mPending = new ConcurrentHashMap<>();
+    private final SocketFactory mSocketFactory = new RacingSocketFactory(this);
+    private final Set<String> mRefreshing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CachingDns");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mStaleHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final long resolvedAt;
+
+        Entry(List<InetAddress> addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    CachingDns() {
+        this(Dns.SYSTEM, DEFAULT_TTL_MS, DEFAULT_STALE_MS);
+    }
+
+    CachingDns(Dns delegate, long ttlMs, long staleMs) {
+        mDelegate = delegate;
+        mTtlMs = ttlMs;
+        mStaleMs = staleMs;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        Entry entry = mCache.get(hostname);
+        if (entry != null) {
+            long age = now() - entry.resolvedAt;
+            if (age < mTtlMs) {
+                mHits.incrementAndGet();
+                return order(hostname, entry.addresses);
+            }
+            if (age < mTtlMs + mStaleMs) {
+                mStaleHits.incrementAndGet();
+                refreshAsync(hostname);
+                return order(hostname, entry.addresses);
+            }
+        }
+        mMisses.incrementAndGet();
+        return order(hostname, resolve(hostname));
+    }
+
+    /** 在后台预先解析尚未缓存或已过期的host */
+    void prefetch(List<String> hostnames) {
+        for (String hostname : hostnames) {
+            Entry entry = mCache.get(hostname);
+            if (entry == null || now() - entry.resolvedAt >= mTtlMs) {
+                refreshAsync(hostname);
+            }
+        }
+    }
+
+    /** 对双栈host竞速连接的SocketFactory，需要与本Dns一起使用 */
+    SocketFactory socketFactory() {
+        return mSocketFactory;
+    }
+
+    /** 连接address时用于竞速的另一个地址族的地址，没有时返回null */
+    InetAddress fallbackOf(InetAddress address) {
+        return (address != null) ? mFallbacks.get(address) : null;
+    }
+
+    /**
+     * 记录成功连接的地址族的网络拦截器
+     * 网络拦截器执行时连接已经建立
+     */
+    Interceptor connectionTracker() {
+        return chain -> {
+            Connection connection = chain.connection();
+            Route route = (connection != null) ? connection.route() : null;
+            if (route != null && route.proxy().type() == Proxy.Type.DIRECT) {
+                InetAddress address = route.socketAddress().getAddress();
+                if (address != null) {
+                    mPreferIpv6.put(route.address().url().host(), address instanceof Inet6Address);
+                }
+            }
+            return chain.proceed(chain.request());
+        };
+    }
+
+    long hitCount() {
+        return mHits.get();
+    }
+
+    long staleHitCount() {
+        return mStaleHits.get();
+    }
+
+    long missCount() {
+        return mMisses.get();
+    }
+
+    /** 解析并缓存结果，同一host正在解析时等待其结果 */
+    private List<InetAddress> resolve(String hostname) throws UnknownHostException {
+        FutureTask<List<InetAddress>> task = new FutureTask<>(() -> {
+            List<InetAddress> addresses = mDelegate.lookup(hostname);
+            mCache.put(hostname, new Entry(addresses, now()));
+            return addresses;
+        });
+        FutureTask<List<InetAddress>> pending = mPending.putIfAbsent(hostname, task);
+        if (pending == null) {
+            pending = task;
+            try {
+                task.run();
+            } finally {
+                mPending.remove(hostname, task);
+            }
+        }
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException("interrupted resolving " + hostname);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnknownHostException) {
+                throw (UnknownHostException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            UnknownHostException exception = new UnknownHostException(hostname);
+            exception.initCause(cause);
+            throw exception;
+        }
+    }
+
+    private void refreshAsync(String hostname) {
+        if (!mRefreshing.add(hostname)) {
+            return;
+        }
+        mExecutor.execute(() -> {
+            try {
+                resolve(hostname);
+            } catch (UnknownHostException e) {
+                // 保留旧的结果，过期后由下一次lookup重新解析
+            } finally {
+                mRefreshing.remove(hostname);
+            }
+        });
+    }
+
+    /** 按访问顺序淘汰的线程安全Map，超过maxEntries时删除最久未使用的 */
+    private static <K, V> Map<K, V> lruMap(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /** 按地址族交替排列地址，优先的地址族在前 */
+    private List<InetAddress> order(String hostname, List<InetAddress> addresses) {
+        if (addresses.size() <= 1) {
+            return addresses;
+        }
+        List<InetAddress> ipv4 = new ArrayList<>();
+        List<InetAddress> ipv6 = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            if (address instanceof Inet6Address) {
+                ipv6.add(address);
+            } else {
+                ipv4.add(address);
+            }
+        }
+        if (ipv4.isEmpty() || ipv6.isEmpty()) {
+            mFallbacks.remove(addresses.get(0));
+            return addresses;
+        }
+        Boolean preferIpv6 = mPreferIpv6.get(hostname);
+        if (preferIpv6 == null) {
+            // 没有连接记录时按系统返回的顺序
+            preferIpv6 = addresses.get(0) instanceof Inet6Address;
+        }
+        List<InetAddress> first = preferIpv6 ? ipv6 : ipv4;
+        List<InetAddress> second = preferIpv6 ? ipv4 : ipv6;
+        List<InetAddress> ordered = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                ordered.add(first.get(i));
+            }
+            if (i < second.size()) {
+                ordered.add(second.get(i));
+            }
+        }
+        mFallbacks.put(first.get(0), second.get(0));
+        return ordered;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
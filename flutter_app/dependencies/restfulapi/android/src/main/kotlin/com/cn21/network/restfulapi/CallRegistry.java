@@ -0,0 +1,115 @@
+package com.cn21.network.restfulapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+
+/**
+ * 类说明:正在执行的请求登记表
+ * 以(clientId << 32 | requestId)作为key，避免不同client请求之间的冲突，
+ * 同时按client建立二级索引，可以快速取消某个client的所有请求。
+ * 所有方法都是线程安全的，可以在OkHttp的回调线程和主线程中同时调用。
+ */
+class CallRegistry {
+    private final ConcurrentMap<Long, Call> mCalls = new ConcurrentHashMap<>();
+    private final Map<Integer, ClientCalls> mClientCalls = new ConcurrentHashMap<>();
+    private final AtomicInteger mInflightCount = new AtomicInteger();
+
+    /** 某个client的请求索引，被cancelAll移除后标记为closed，不再接受新的请求 */
+    private static class ClientCalls {
+        final Map<Long, Call> calls = new ConcurrentHashMap<>();
+        final AtomicInteger count = new AtomicInteger();
+        // 以ClientCalls自身为锁
+        boolean closed = false;
+    }
+
+    static long key(int clientId, int requestId) {
+        return ((long) clientId << 32) | (requestId & 0xFFFFFFFFL);
+    }
+
+    void add(int clientId, int requestId, Call call) {
+        long key = key(clientId, requestId);
+        if (mCalls.put(key, call) == null) {
+            mInflightCount.incrementAndGet();
+        }
+        ClientCalls clientCalls = mClientCalls.get(clientId);
+        if (clientCalls == null) {
+            ClientCalls newCalls = new ClientCalls();
+            clientCalls = mClientCalls.putIfAbsent(clientId, newCalls);
+            if (clientCalls == null) {
+                clientCalls = newCalls;
+            }
+        }
+        synchronized (clientCalls) {
+            if (!clientCalls.closed) {
+                if (clientCalls.calls.put(key, call) == null) {
+                    clientCalls.count.incrementAndGet();
+                }
+                return;
+            }
+        }
+        // 与cancelAll同时进行，client已关闭，直接取消
+        if (mCalls.remove(key, call)) {
+            mInflightCount.decrementAndGet();
+        }
+        call.cancel();
+    }
+
+    Call remove(int clientId, int requestId) {
+        long key = key(clientId, requestId);
+        Call call = mCalls.remove(key);
+        if (call != null) {
+            mInflightCount.decrementAndGet();
+        }
+        ClientCalls clientCalls = mClientCalls.get(clientId);
+        if (clientCalls != null && clientCalls.calls.remove(key) != null) {
+            clientCalls.count.decrementAndGet();
+        }
+        return call;
+    }
+
+    Call get(int clientId, int requestId) {
+        return mCalls.get(key(clientId, requestId));
+    }
+
+    /**
+     * 取消并移除某个client的所有请求
+     * @return 取消的请求数
+     */
+    int cancelAll(int clientId) {
+        ClientCalls clientCalls = mClientCalls.remove(clientId);
+        if (clientCalls == null) {
+            return 0;
+        }
+        List<Call> calls;
+        synchronized (clientCalls) {
+            clientCalls.closed = true;
+            calls = new ArrayList<>(clientCalls.calls.values());
+        }
+        for (Long key : clientCalls.calls.keySet()) {
+            if (mCalls.remove(key) != null) {
+                mInflightCount.decrementAndGet();
+            }
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+        return calls.size();
+    }
+
+    /** 正在执行的请求总数 */
+    int inflightCount() {
+        return mInflightCount.get();
+    }
+
+    /** 某个client正在执行的请求数 */
+    int inflightCount(int clientId) {
+        ClientCalls clientCalls = mClientCalls.get(clientId);
+        return (clientCalls != null) ? clientCalls.count.get() : 0;
+    }
+}
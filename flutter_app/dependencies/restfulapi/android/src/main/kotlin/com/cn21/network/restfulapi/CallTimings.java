@@ -0,0 +1,216 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 类说明:记录单个请求各网络阶段的时间
+ * 作为请求的tag传入，由{@link #FACTORY}在OkHttp创建Call时取出作为该Call的EventListener，
+ * 没有tag的请求也会创建一个，用于统计TLS会话的恢复情况。
+ * 时间均为相对callStart的纳秒数，未发生的阶段不会出现在结果中。
+ * 同时向{@link HostStats}记录流量，及从创建Call(包括在调度器中排队的时间)到收到最后一次响应头的延迟。
+ */
+class CallTimings extends EventListener {
+    static final EventListener.Factory FACTORY = call -> {
+        CallTimings timings = call.request().tag(CallTimings.class);
+        if (timings != null) {
+            return timings;
+        }
+        // 预连接请求只统计TLS会话的恢复情况
+        return new CallTimings(!Preconnect.is(call.request()));
+    };
+
+    private long mCallStart = -1;
+    private final Map<String, Long> mPhases = new HashMap<>();
+    private boolean mConnected = false;
+    private boolean mConnectionReused = false;
+    private String mProtocol = null;
+    // TLS握手开始的时间(毫秒)，用于判断会话是否为恢复的会话
+    private long mSecureConnectStartMillis = -1;
+    // 该请求进行了TLS握手时是否恢复了会话
+    private Boolean mTlsResumed = null;
+    // 创建的时间，早于请求在调度器中排队
+    private final long mCreateTime = System.nanoTime();
+    // 最后一次收到响应头的时间及状态码，重试时为最后一次尝试的结果
+    private long mResponseHeadersTime = -1;
+    private int mStatusCode = 0;
+    private boolean mLatencyRecorded = false;
+    // 是否向HostStats记录
+    private final boolean mRecordHostStats;
+
+    CallTimings() {
+        this(true);
+    }
+
+    CallTimings(boolean recordHostStats) {
+        mRecordHostStats = recordHostStats;
+    }
+
+    private synchronized void mark(String phase) {
+        if (mCallStart >= 0) {
+            mPhases.put(phase, System.nanoTime() - mCallStart);
+        }
+    }
+
+    /** 只记录第一次发生的时间，用于会多次触发的开始事件 */
+    private synchronized void markFirst(String phase) {
+        if (mCallStart >= 0 && !mPhases.containsKey(phase)) {
+            mPhases.put(phase, System.nanoTime() - mCallStart);
+        }
+    }
+
+    @Override
+    public synchronized void callStart(Call call) {
+        mCallStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        markFirst("dnsStart");
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        mark("dnsEnd");
+    }
+
+    @Override
+    public synchronized void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        mConnected = true;
+        markFirst("connectStart");
+    }
+
+    @Override
+    public synchronized void secureConnectStart(Call call) {
+        if (mSecureConnectStartMillis < 0) {
+            mSecureConnectStartMillis = System.currentTimeMillis();
+        }
+        markFirst("secureConnectStart");
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        mark("secureConnectEnd");
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        mark("connectEnd");
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol,
+                              IOException ioe) {
+        mark("connectFailed");
+    }
+
+    @Override
+    public synchronized void connectionAcquired(Call call, Connection connection) {
+        mConnectionReused = !mConnected;
+        mProtocol = connection.protocol().toString();
+        Socket socket = connection.socket();
+        if (mConnected && mSecureConnectStartMillis >= 0 && socket instanceof SSLSocket) {
+            // 恢复的会话创建于之前的握手，新会话创建于本次握手过程中
+            SSLSession session = ((SSLSocket) socket).getSession();
+            mTlsResumed = session.getCreationTime() < mSecureConnectStartMillis;
+            TlsStats.recordHandshake(mTlsResumed);
+        }
+        mark("connectionAcquired");
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        markFirst("requestHeadersStart");
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        if (mRecordHostStats) {
+            HostStats.of(call.request().url().host()).addBytesOut(byteCount);
+        }
+        mark("requestBodyEnd");
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        mark("responseHeadersStart");
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        // 响应头读取完成，近似为首字节时间
+        synchronized (this) {
+            mResponseHeadersTime = System.nanoTime();
+            mStatusCode = response.code();
+        }
+        mark("responseHeadersEnd");
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        if (mRecordHostStats) {
+            HostStats.of(call.request().url().host()).addBytesIn(byteCount);
+        }
+        mark("responseBodyEnd");
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        recordLatency(call, false);
+        mark("callEnd");
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        recordLatency(call, true);
+        mark("callFailed");
+    }
+
+    /**
+     * 记录请求的延迟，成功结束但没有收到响应头的请求(如缓存命中)没有访问网络，不记录
+     * @param failed 请求是否失败，失败且没有收到响应头时计入failed
+     */
+    private void recordLatency(Call call, boolean failed) {
+        long endTime;
+        int statusCode;
+        synchronized (this) {
+            if (!mRecordHostStats || mLatencyRecorded || (mStatusCode == 0 && !failed)) {
+                return;
+            }
+            mLatencyRecorded = true;
+            endTime = (mResponseHeadersTime >= 0) ? mResponseHeadersTime : System.nanoTime();
+            statusCode = mStatusCode;
+        }
+        HostStats.of(call.request().url().host()).recordLatency(statusCode, endTime - mCreateTime);
+    }
+
+    /** 当前已记录的时间及连接信息，流式返回body时不包含body传输阶段 */
+    synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>(mPhases);
+        map.put("connectionReused", mConnectionReused);
+        if (mProtocol != null) {
+            map.put("protocol", mProtocol);
+        }
+        if (mTlsResumed != null) {
+            map.put("tlsResumed", mTlsResumed);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,78 @@
+package com.cn21.network.restfulapi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 类说明:可复用的DirectByteBuffer缓冲池
+ * 缓冲区按2的幂分级(16KB~256KB)，池中缓存的总字节数有上限，
+ * 超出上限的缓冲区在归还时直接丢弃交给GC回收。
+ */
+class ChunkBufferPool {
+    static final int MIN_CHUNK_SIZE = 16 * 1024;
+    static final int MAX_CHUNK_SIZE = 256 * 1024;
+    private static final int MIN_SHIFT = 14;
+    private static final int LEVEL_COUNT = 5;
+
+    private final long mMaxPooledBytes;
+    private final ArrayDeque<ByteBuffer>[] mFreeBuffers;
+    private long mPooledBytes = 0;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ChunkBufferPool(long maxPooledBytes) {
+        mMaxPooledBytes = maxPooledBytes;
+        mFreeBuffers = new ArrayDeque[LEVEL_COUNT];
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            mFreeBuffers[i] = new ArrayDeque<>();
+        }
+    }
+
+    /** 获取容量不小于size的缓冲区，size会被规整到所在级别 */
+    ByteBuffer acquire(int size) {
+        int level = levelOf(size);
+        synchronized (this) {
+            ByteBuffer buffer = mFreeBuffers[level].pollFirst();
+            if (buffer != null) {
+                mPooledBytes -= buffer.capacity();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(MIN_CHUNK_SIZE << level);
+    }
+
+    /** 归还缓冲区，调用后不能再使用该缓冲区 */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int level = levelOf(capacity);
+        if ((MIN_CHUNK_SIZE << level) != capacity) {
+            // 不是从池中分配的缓冲区
+            return;
+        }
+        synchronized (this) {
+            if (mPooledBytes + capacity <= mMaxPooledBytes) {
+                mFreeBuffers[level].addFirst(buffer);
+                mPooledBytes += capacity;
+            }
+        }
+    }
+
+    /** 将size规整为2的幂并夹在[MIN_CHUNK_SIZE, MAX_CHUNK_SIZE]之间 */
+    static int alignChunkSize(long size) {
+        return MIN_CHUNK_SIZE << levelOf(size);
+    }
+
+    private static int levelOf(long size) {
+        if (size <= MIN_CHUNK_SIZE) {
+            return 0;
+        }
+        if (size >= MAX_CHUNK_SIZE) {
+            return LEVEL_COUNT - 1;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(size - 1);
+        return Math.min(shift - MIN_SHIFT, LEVEL_COUNT - 1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 类说明:磁盘缓存的策略
+ * respect(默认): 按响应头缓存;
+ * force: 忽略响应头，成功的GET响应强制缓存指定的秒数;
+ * offlineFallback: 按响应头缓存，网络请求失败时使用缓存(即使已过期)。
+ */
+class DiskCachePolicy {
+    static final String RESPECT = "respect";
+    static final String FORCE = "force";
+    static final String OFFLINE_FALLBACK = "offlineFallback";
+
+    static final String STATUS_NETWORK = "network";
+    static final String STATUS_CONDITIONAL = "conditional";
+    static final String STATUS_CACHE = "cache";
+    static final String STATUS_MEMORY = "memory";
+
+    /** 强制缓存成功的GET响应，作为网络拦截器使用 */
+    static Interceptor forceCache(long maxAgeSeconds) {
+        return chain -> {
+            Request request = chain.request();
+            Response response = chain.proceed(request);
+            if (!"GET".equals(request.method()) || !response.isSuccessful()) {
+                return response;
+            }
+            return response.newBuilder()
+                    .removeHeader("Pragma")
+                    .header("Cache-Control", "public, max-age=" + maxAgeSeconds)
+                    .build();
+        };
+    }
+
+    /** 网络请求失败时使用缓存，需要在重试拦截器之外使用 */
+    static Interceptor offlineFallback() {
+        return chain -> {
+            Request request = chain.request();
+            try {
+                return chain.proceed(request);
+            } catch (IOException e) {
+                if (!"GET".equals(request.method()) || chain.call().isCanceled()) {
+                    throw e;
+                }
+                // 只读缓存，不需要重试，也不能覆盖原请求的尝试次数
+                Request cacheRequest = request.newBuilder()
+                        .cacheControl(CacheControl.FORCE_CACHE)
+                        .tag(RetryInterceptor.State.class, null)
+                        .build();
+                Response cached = chain.proceed(cacheRequest);
+                if (cached.code() == 504) {
+                    // 没有缓存
+                    cached.close();
+                    throw e;
+                }
+                return cached;
+            }
+        };
+    }
+
+    /**
+     * 响应的来源
+     * network: 来自网络; conditional: 缓存经服务器验证(304)后返回; cache: 直接来自磁盘缓存;
+     * memory: 来自内存缓存({@link MemoryCache})
+     */
+    static String statusOf(Response response) {
+        Response networkResponse = response.networkResponse();
+        Response cacheResponse = response.cacheResponse();
+        if (cacheResponse != null) {
+            return (networkResponse != null) ? STATUS_CONDITIONAL : STATUS_CACHE;
+        }
+        return (networkResponse != null) ? STATUS_NETWORK : STATUS_MEMORY;
+    }
+}
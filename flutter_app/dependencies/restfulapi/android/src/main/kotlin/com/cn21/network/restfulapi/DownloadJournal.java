@@ -0,0 +1,189 @@
+package com.cn21.network.restfulapi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 类说明:分段下载的日志文件
+ * 第一行记录url、文件长度及校验值(ETag或Last-Modified)，之后每行记录一个已写入并同步到磁盘的区间[start, end)。
+ * 日志只追加写入，进程中途退出时最多丢失最后一行，下次下载时从未完成的区间继续。
+ * 读取时只接受以换行结束的行，没有写完整的最后一行被忽略。
+ * 关闭后不能再追加，之后的{@link #append(long, long)}抛出异常。
+ */
+class DownloadJournal {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    final File file;
+    final String url;
+    final long length;
+    final String validator;
+    // 已完成的区间，按start排序且互不重叠
+    private final List<long[]> mRanges = new ArrayList<>();
+    private FileOutputStream mOut;
+    private boolean mClosed = false;
+
+    private DownloadJournal(File file, String url, long length, String validator) {
+        this.file = file;
+        this.url = url;
+        this.length = length;
+        this.validator = validator;
+    }
+
+    /**
+     * 读取日志
+     * @return 日志不存在或格式错误时返回null
+     */
+    static DownloadJournal load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                content.write(buffer, 0, len);
+            }
+            String text = new String(content.toByteArray(), UTF8);
+            // 最后一个换行之后的内容没有写完整
+            String[] lines = text.substring(0, text.lastIndexOf('\n') + 1).split("\n");
+            String[] header = splitLine(lines[0], 3);
+            if (header == null) {
+                return null;
+            }
+            DownloadJournal journal = new DownloadJournal(file, header[0], Long.parseLong(header[1]),
+                    header[2].isEmpty() ? null : header[2]);
+            for (int i = 1; i < lines.length; i++) {
+                String[] range = splitLine(lines[i], 2);
+                if (range == null) {
+                    break;
+                }
+                long start = Long.parseLong(range[0]);
+                long end = Long.parseLong(range[1]);
+                if (start < 0 || end <= start || end > journal.length) {
+                    break;
+                }
+                journal.addRange(start, end);
+            }
+            return journal;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+
+    /** 创建新的日志，覆盖原有的日志 */
+    static DownloadJournal create(File file, String url, long length, String validator) throws IOException {
+        DownloadJournal journal = new DownloadJournal(file, url, length, validator);
+        FileOutputStream out = new FileOutputStream(file, false);
+        try {
+            String header = url + "\t" + length + "\t" + (validator != null ? validator : "") + "\n";
+            out.write(header.getBytes(UTF8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        return journal;
+    }
+
+    /** 记录已写入并同步到磁盘的区间 */
+    synchronized void append(long start, long end) throws IOException {
+        if (end <= start) {
+            return;
+        }
+        if (mClosed) {
+            throw new IOException("journal closed");
+        }
+        if (mOut == null) {
+            mOut = new FileOutputStream(file, true);
+        }
+        try {
+            mOut.write((start + "\t" + end + "\n").getBytes(UTF8));
+            mOut.getFD().sync();
+        } catch (IOException e) {
+            // 可能只写入了半行，之后再追加会与其拼接成错误的区间
+            close();
+            throw e;
+        }
+        addRange(start, end);
+    }
+
+    /** 已完成的字节数 */
+    synchronized long completedBytes() {
+        long bytes = 0;
+        for (long[] range : mRanges) {
+            bytes += range[1] - range[0];
+        }
+        return bytes;
+    }
+
+    /** 未完成的区间 */
+    synchronized List<long[]> missingRanges() {
+        List<long[]> missing = new ArrayList<>();
+        long position = 0;
+        for (long[] range : mRanges) {
+            if (range[0] > position) {
+                missing.add(new long[]{position, range[0]});
+            }
+            position = Math.max(position, range[1]);
+        }
+        if (position < length) {
+            missing.add(new long[]{position, length});
+        }
+        return missing;
+    }
+
+    synchronized void close() {
+        mClosed = true;
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {}
+            mOut = null;
+        }
+    }
+
+    void delete() {
+        close();
+        file.delete();
+    }
+
+    private void addRange(long start, long end) {
+        mRanges.add(new long[]{start, end});
+        Collections.sort(mRanges, (a, b) -> (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1));
+        // 合并相邻或重叠的区间
+        List<long[]> merged = new ArrayList<>();
+        for (long[] range : mRanges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1]) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(new long[]{range[0], range[1]});
+            }
+        }
+        mRanges.clear();
+        mRanges.addAll(merged);
+    }
+
+    private static String[] splitLine(String line, int count) {
+        if (line == null) {
+            return null;
+        }
+        String[] parts = line.split("\t", -1);
+        return (parts.length == count) ? parts : null;
+    }
+}
@@ -0,0 +1,107 @@
+package com.cn21.network.restfulapi;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 类说明:按host统计的请求延迟及流量
+ * 由{@link CallTimings}记录，所有client共享。每个host按状态码类别(1xx~5xx及failed)分别记录延迟直方图，
+ * 直方图在第一次有该类别的请求时创建。host数有上限，超出的host计入"*"，总内存固定。
+ * 清零时直方图整体换为null，读取换下的直方图，每个样本只会计入一个统计周期；
+ * 与换下同时进行的记录可能写入旧直方图而丢失。流量计数各自原子地清零，bytesIn与bytesOut之间不保证属于同一时刻。
+ */
+class HostStats {
+    private static final String[] STATUS_CLASSES = {"failed", "1xx", "2xx", "3xx", "4xx", "5xx"};
+    private static final int MAX_HOSTS = 64;
+    private static final String OTHER_HOSTS = "*";
+
+    private static final ConcurrentHashMap<String, HostStats> sHosts = new ConcurrentHashMap<>();
+    // 当前统计周期的开始时间
+    private static volatile long sIntervalStart = SystemClock.elapsedRealtime();
+
+    private final AtomicLong mBytesIn = new AtomicLong();
+    private final AtomicLong mBytesOut = new AtomicLong();
+    private final AtomicReferenceArray<LatencyHistogram> mLatency =
+            new AtomicReferenceArray<>(STATUS_CLASSES.length);
+
+    static HostStats of(String host) {
+        HostStats stats = sHosts.get(host);
+        if (stats != null) {
+            return stats;
+        }
+        if (sHosts.size() >= MAX_HOSTS) {
+            host = OTHER_HOSTS;
+        }
+        HostStats newStats = new HostStats();
+        stats = sHosts.putIfAbsent(host, newStats);
+        return (stats != null) ? stats : newStats;
+    }
+
+    void addBytesIn(long bytes) {
+        mBytesIn.addAndGet(bytes);
+    }
+
+    void addBytesOut(long bytes) {
+        mBytesOut.addAndGet(bytes);
+    }
+
+    /**
+     * 记录一个请求的延迟
+     * @param statusCode 响应的状态码，没有响应时为0
+     */
+    void recordLatency(int statusCode, long nanos) {
+        int statusClass = (statusCode >= 100 && statusCode < 600) ? statusCode / 100 : 0;
+        LatencyHistogram histogram = mLatency.get(statusClass);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            if (!mLatency.compareAndSet(statusClass, null, histogram)) {
+                // 其它线程已创建，或刚好被清零换下
+                LatencyHistogram current = mLatency.get(statusClass);
+                if (current != null) {
+                    histogram = current;
+                }
+            }
+        }
+        histogram.record(nanos / 1000);
+    }
+
+    private Map<String, Object> snapshot(boolean reset) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("bytesIn", reset ? mBytesIn.getAndSet(0) : mBytesIn.get());
+        map.put("bytesOut", reset ? mBytesOut.getAndSet(0) : mBytesOut.get());
+        Map<String, Object> latency = new HashMap<>();
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            LatencyHistogram histogram = reset ? mLatency.getAndSet(i, null) : mLatency.get(i);
+            Map<String, Object> histogramStats = (histogram != null) ? histogram.snapshot() : null;
+            if (histogramStats != null) {
+                latency.put(STATUS_CLASSES[i], histogramStats);
+            }
+        }
+        map.put("latency", latency);
+        return map;
+    }
+
+    /**
+     * 所有host的统计结果，延迟单位为微秒，参考{@link LatencyHistogram#snapshot()}
+     * @param reset 是否同时清零并开始新的统计周期
+     */
+    static Map<String, Object> stats(boolean reset) {
+        Map<String, Object> stats = new HashMap<>();
+        long now = SystemClock.elapsedRealtime();
+        stats.put("intervalMs", now - sIntervalStart);
+        if (reset) {
+            sIntervalStart = now;
+        }
+        Map<String, Object> hosts = new HashMap<>();
+        for (Map.Entry<String, HostStats> entry : sHosts.entrySet()) {
+            hosts.put(entry.getKey(), entry.getValue().snapshot(reset));
+        }
+        stats.put("hosts", hosts);
+        return stats;
+    }
+}
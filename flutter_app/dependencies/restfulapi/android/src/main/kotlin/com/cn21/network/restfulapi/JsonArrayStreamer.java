@@ -0,0 +1,137 @@
+package com.cn21.network.restfulapi;
+
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.flutter.plugin.common.StandardMessageCodec;
+import okhttp3.ResponseBody;
+
+/**
+ * 类说明:边下载边解析JSON数组，分批发送数组元素
+ * 通过JSON Pointer(RFC 6901)定位body中的数组，为空时为顶层数组。
+ * 每批数据是依次以StandardMessageCodec编码的多个元素，Dart端使用同一个ReadBuffer依次读取。
+ * 发送时作为{@link ResponseTarget#FRAME_DATA}消息的内容，出错时由调用方发送FRAME_ERROR消息。
+ * 一批数据达到batchBytes或距上一批超过FLUSH_INTERVAL_MS时发送，第一批数据可以在下载完成前到达Dart端。
+ */
+class JsonArrayStreamer {
+    static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 100;
+
+    /** 接收编码好的一批数据，data中[0, length)有效，返回后可复用data */
+    interface BatchSink {
+        void onBatch(byte[] data, int length) throws IOException;
+    }
+
+    private static class BatchStream extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static class Codec extends StandardMessageCodec {
+        void write(ByteArrayOutputStream stream, Object value) {
+            writeValue(stream, value);
+        }
+    }
+
+    private static final Codec CODEC = new Codec();
+
+    /**
+     * 解析body并分批发送数组元素
+     * @return 元素总数
+     */
+    static int stream(ResponseBody responseBody, String pointer, int batchBytes, BatchSink sink)
+            throws IOException {
+        try {
+            JsonReader reader = new JsonReader(responseBody.charStream());
+            locate(reader, pointer);
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new IOException("json pointer \"" + pointer + "\" is not an array");
+            }
+            BatchStream batch = new BatchStream();
+            int batchCount = 0;
+            int total = 0;
+            long lastFlushTime = SystemClock.elapsedRealtime();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                CODEC.write(batch, JsonBodyDecoder.readValue(reader));
+                batchCount++;
+                total++;
+                long now = SystemClock.elapsedRealtime();
+                if (batch.size() >= batchBytes || now - lastFlushTime >= FLUSH_INTERVAL_MS) {
+                    sink.onBatch(batch.buffer(), batch.size());
+                    batch.reset();
+                    batchCount = 0;
+                    lastFlushTime = now;
+                }
+            }
+            if (batchCount > 0) {
+                sink.onBatch(batch.buffer(), batch.size());
+            }
+            // 数组之后的内容不再解析
+            return total;
+        } finally {
+            responseBody.close();
+        }
+    }
+
+    /** 将reader移动到pointer指向的值之前 */
+    private static void locate(JsonReader reader, String pointer) throws IOException {
+        for (String token : parsePointer(pointer)) {
+            JsonToken type = reader.peek();
+            boolean found = false;
+            if (type == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (token.equals(reader.nextName())) {
+                        found = true;
+                        break;
+                    }
+                    reader.skipValue();
+                }
+            } else if (type == JsonToken.BEGIN_ARRAY) {
+                int index = parseIndex(token);
+                reader.beginArray();
+                for (int i = 0; i <= index && reader.hasNext(); i++) {
+                    if (i == index) {
+                        found = true;
+                        break;
+                    }
+                    reader.skipValue();
+                }
+            }
+            if (!found) {
+                throw new IOException("json pointer \"" + pointer + "\" not found");
+            }
+        }
+    }
+
+    /** 按RFC 6901拆分pointer，~1表示/，~0表示~ */
+    static List<String> parsePointer(String pointer) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        if (pointer == null || pointer.isEmpty()) {
+            return tokens;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new IOException("invalid json pointer \"" + pointer + "\"");
+        }
+        for (String token : pointer.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+
+    private static int parseIndex(String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.cn21.network.restfulapi;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+/**
+ * 类说明:在原生端解析JSON格式的body
+ * 使用JsonReader边读取边解析，直接生成StandardMessageCodec支持的Map、List及基本类型，
+ * 不会生成完整的字符串或中间的JSON对象树。
+ */
+class JsonBodyDecoder {
+
+    /** body的Content-Type为空或为JSON类型时才在原生端解析 */
+    static boolean accepts(ResponseBody responseBody) {
+        MediaType contentType = responseBody.contentType();
+        if (contentType == null) {
+            return true;
+        }
+        String subtype = contentType.subtype();
+        return "json".equalsIgnoreCase(subtype) || subtype.toLowerCase().endsWith("+json");
+    }
+
+    /**
+     * 解析整个body
+     * @return 解析结果，body为空时返回null
+     */
+    static Object decode(ResponseBody responseBody) throws IOException {
+        try {
+            if (responseBody.source().exhausted()) {
+                return null;
+            }
+            Reader reader = responseBody.charStream();
+            JsonReader jsonReader = new JsonReader(reader);
+            return readValue(jsonReader);
+        } finally {
+            responseBody.close();
+        }
+    }
+
+    /** 读取当前位置的一个完整的值 */
+    static Object readValue(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_ARRAY: {
+                List<Object> list = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    list.add(readValue(reader));
+                }
+                reader.endArray();
+                return list;
+            }
+            case BEGIN_OBJECT: {
+                Map<String, Object> map = new HashMap<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    map.put(name, readValue(reader));
+                }
+                reader.endObject();
+                return map;
+            }
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                throw new IOException("unexpected json token " + token);
+        }
+    }
+
+    /** 整数优先使用Integer，超出范围时使用Long，其它使用Double */
+    private static Object parseNumber(String number) {
+        if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+            try {
+                long value = Long.parseLong(number);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                // 超出long的范围，按double处理
+            }
+        }
+        return Double.parseDouble(number);
+    }
+}
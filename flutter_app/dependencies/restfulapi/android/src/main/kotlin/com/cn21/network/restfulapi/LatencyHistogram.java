@@ -0,0 +1,91 @@
+package com.cn21.network.restfulapi;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 类说明:固定内存、无锁的延迟直方图
+ * 与HdrHistogram类似按对数分桶: 每个2的幂区间再等分为8个子区间，相对误差不超过12.5%。
+ * 以微秒记录，最大约2^32微秒(约70分钟)，超出的计入最后一个桶。
+ * 不支持清零，需要按周期统计时由调用方换用新的直方图(参考{@link HostStats})。
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 31;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final int[] PERCENTILES = {50, 90, 95, 99};
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        mBuckets.incrementAndGet(indexOf(micros));
+        mSum.addAndGet(micros);
+        long max;
+        while (micros > (max = mMax.get()) && !mMax.compareAndSet(max, micros)) {
+            // 重试直到更新成功或已有更大的值
+        }
+    }
+
+    /**
+     * 读取统计结果: count、mean、p50、p90、p95、p99、max，时间单位为微秒
+     * 与并发的记录之间没有同步，各项结果之间可能相差正在记录的样本
+     * @return 没有样本时返回null
+     */
+    Map<String, Object> snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mBuckets.get(i);
+            count += counts[i];
+        }
+        long sum = mSum.get();
+        long max = mMax.get();
+        if (count == 0) {
+            return null;
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", count);
+        map.put("mean", sum / count);
+        int p = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT && p < PERCENTILES.length; i++) {
+            seen += counts[i];
+            while (p < PERCENTILES.length && seen * 100 >= count * PERCENTILES[p]) {
+                map.put("p" + PERCENTILES[p], Math.min(upperBoundOf(i), max));
+                p++;
+            }
+        }
+        map.put("max", max);
+        return map;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** 桶中的最大值 */
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
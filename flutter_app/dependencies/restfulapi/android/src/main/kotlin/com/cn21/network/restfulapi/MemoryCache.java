@@ -0,0 +1,381 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * 类说明:client的内存响应缓存
+ * 按字节数限制大小的LRU缓存，只缓存GET请求的200响应，key为method、url及Vary指定的请求头。
+ * 未过期的缓存直接返回，不访问网络；过期的缓存使用If-None-Match/If-Modified-Since重新验证，
+ * 服务器返回304时使用缓存的body，返回的响应同时带有networkResponse及cacheResponse，
+ * {@link DiskCachePolicy#statusOf}据此返回"conditional"。
+ * 是否过期按OkHttp的CacheStrategy计算，响应的年龄包括Age头及请求往返的时间。
+ * 缓存通过请求的tag传入，由{@link #INTERCEPTOR}处理。
+ */
+class MemoryCache {
+    // 所有client共用的拦截器，请求没有tag时不使用缓存
+    static final Interceptor INTERCEPTOR = chain -> {
+        MemoryCache cache = chain.request().tag(MemoryCache.class);
+        return (cache != null) ? cache.intercept(chain) : chain.proceed(chain.request());
+    };
+
+    private final long mMaxSize;
+    private final long mMaxEntrySize;
+    private long mSize = 0;
+    // 按访问顺序排列，最久未访问的在前
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    // url -> 最近一次响应的Vary请求头名称，该url的缓存都被删除时一起删除
+    private final Map<String, UrlVary> mVaryNames = new HashMap<>();
+    private long mHits = 0;
+    private long mRevalidations = 0;
+    private long mMisses = 0;
+    private long mEvictions = 0;
+
+    private static class UrlVary {
+        List<String> names;
+        // 该url的缓存数量
+        int entries;
+    }
+
+    private static class Entry {
+        final String key;
+        final String url;
+        final Protocol protocol;
+        final String message;
+        Headers headers;
+        final byte[] body;
+        // 发出请求及收到响应(或重新验证)的时间
+        long sentAt;
+        long receivedAt;
+        final long size;
+
+        Entry(String key, String url, Response response, byte[] body) {
+            this.key = key;
+            this.url = url;
+            this.protocol = response.protocol();
+            this.message = response.message();
+            this.headers = response.headers();
+            this.body = body;
+            updateTimes(response);
+            this.size = body.length + headersSize(headers);
+        }
+
+        void updateTimes(Response response) {
+            receivedAt = (response.receivedResponseAtMillis() > 0)
+                    ? response.receivedResponseAtMillis()
+                    : System.currentTimeMillis();
+            sentAt = (response.sentRequestAtMillis() > 0) ? response.sentRequestAtMillis() : receivedAt;
+        }
+    }
+
+    /** @param maxSize 缓存的最大字节数，单个响应不超过其1/4 */
+    MemoryCache(long maxSize) {
+        mMaxSize = maxSize;
+        mMaxEntrySize = maxSize / 4;
+    }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", mHits);
+        stats.put("revalidations", mRevalidations);
+        stats.put("misses", mMisses);
+        stats.put("evictions", mEvictions);
+        stats.put("size", mSize);
+        stats.put("count", mEntries.size());
+        return stats;
+    }
+
+    /**
+     * 删除url以prefix开头的缓存
+     * @return 删除的数量
+     */
+    synchronized int purge(String prefix) {
+        int count = 0;
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            // key为"method url..."
+            if (entry.key.startsWith(prefix, entry.key.indexOf(' ') + 1)) {
+                iterator.remove();
+                onRemoved(entry);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Response intercept(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        CacheControl requestCacheControl = request.cacheControl();
+        if (!"GET".equals(request.method()) || requestCacheControl.noStore()) {
+            return chain.proceed(request);
+        }
+        String key;
+        Entry entry;
+        String etag = null;
+        String lastModified = null;
+        synchronized (this) {
+            UrlVary vary = mVaryNames.get(request.url().toString());
+            key = keyOf(request, (vary != null) ? vary.names : null);
+            entry = mEntries.get(key);
+            if (entry != null && !requestCacheControl.noCache() && isFresh(entry)) {
+                mHits++;
+                return cachedResponse(request, entry);
+            }
+            if (entry != null) {
+                // 重新验证时headers可能被替换，在锁内读取校验值
+                etag = entry.headers.get("ETag");
+                lastModified = entry.headers.get("Last-Modified");
+            }
+        }
+        Request networkRequest = request;
+        if (entry != null && request.header("If-None-Match") == null && request.header("If-Modified-Since") == null) {
+            // 使用缓存的校验值重新验证
+            Request.Builder builder = request.newBuilder();
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            } else if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
+            }
+            networkRequest = builder.build();
+        }
+        Response response = chain.proceed(networkRequest);
+        if (response.code() == 304 && entry != null && networkRequest != request) {
+            response.close();
+            Response cached;
+            synchronized (this) {
+                mRevalidations++;
+                // 使用304响应中的头更新缓存
+                entry.headers = mergeHeaders(entry.headers, response.headers());
+                entry.updateTimes(response);
+                cached = cachedResponse(request, entry);
+            }
+            // 与OkHttp的磁盘缓存相同，同时设置networkResponse及cacheResponse表示重新验证的结果
+            return cached.newBuilder()
+                    .networkResponse(stripBody(response))
+                    .cacheResponse(stripBody(cached))
+                    .build();
+        }
+        synchronized (this) {
+            mMisses++;
+        }
+        return store(key, request, response);
+    }
+
+    /** 缓存可以缓存的响应，body已读入内存时返回使用该body的新响应 */
+    private Response store(String key, Request request, Response response) throws IOException {
+        ResponseBody body = response.body();
+        CacheControl cacheControl = response.cacheControl();
+        boolean hasValidator = response.header("ETag") != null || response.header("Last-Modified") != null;
+        if (response.code() != 200 || body == null || cacheControl.noStore()
+                || (!hasValidator && freshnessLifetime(response.headers(), System.currentTimeMillis()) <= 0)
+                || "*".equals(response.header("Vary"))) {
+            return response;
+        }
+        long contentLength = body.contentLength();
+        if (contentLength > mMaxEntrySize) {
+            return response;
+        }
+        BufferedSource source = body.source();
+        if (contentLength < 0 && source.request(mMaxEntrySize + 1)) {
+            // 长度未知且超过单个响应的上限，已预读的数据仍保留在source中
+            return response;
+        }
+        byte[] bytes = body.bytes();
+        List<String> varyNames = varyNames(response.headers());
+        String varyKey = keyOf(request, varyNames);
+        Entry entry = new Entry(varyKey, request.url().toString(), response, bytes);
+        synchronized (this) {
+            if (!varyKey.equals(key)) {
+                remove(key);
+            }
+            remove(varyKey);
+            UrlVary vary = mVaryNames.get(entry.url);
+            if (vary == null) {
+                vary = new UrlVary();
+                mVaryNames.put(entry.url, vary);
+            }
+            vary.names = varyNames;
+            vary.entries++;
+            mEntries.put(varyKey, entry);
+            mSize += entry.size;
+            trimToSize();
+        }
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), bytes))
+                .build();
+    }
+
+    private void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            onRemoved(entry);
+        }
+    }
+
+    private void onRemoved(Entry entry) {
+        mSize -= entry.size;
+        UrlVary vary = mVaryNames.get(entry.url);
+        if (vary != null && --vary.entries <= 0) {
+            mVaryNames.remove(entry.url);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            onRemoved(entry);
+            mEvictions++;
+        }
+    }
+
+    private static Response cachedResponse(Request request, Entry entry) {
+        String contentType = entry.headers.get("Content-Type");
+        return new Response.Builder()
+                .request(request)
+                .protocol(entry.protocol)
+                .code(200)
+                .message(entry.message)
+                .headers(entry.headers)
+                .body(ResponseBody.create(contentType != null ? MediaType.parse(contentType) : null, entry.body))
+                .sentRequestAtMillis(entry.sentAt)
+                .receivedResponseAtMillis(entry.receivedAt)
+                .build();
+    }
+
+    /** 用于networkResponse/cacheResponse的响应，不能带有body及嵌套的响应 */
+    private static Response stripBody(Response response) {
+        return response.newBuilder()
+                .body(null)
+                .networkResponse(null)
+                .cacheResponse(null)
+                .priorResponse(null)
+                .build();
+    }
+
+    private static boolean isFresh(Entry entry) {
+        CacheControl cacheControl = CacheControl.parse(entry.headers);
+        if (cacheControl.noCache()) {
+            return false;
+        }
+        return currentAge(entry, System.currentTimeMillis()) < freshnessLifetime(entry.headers, entry.receivedAt);
+    }
+
+    /**
+     * 响应当前的年龄(毫秒)，与CacheStrategy相同:
+     * 收到时的年龄(Date推算的年龄与Age头中较大的)加上请求往返的时间及之后在缓存中的时间
+     */
+    private static long currentAge(Entry entry, long now) {
+        long date = RetryInterceptor.parseHttpDate(entry.headers.get("Date"));
+        long receivedAge = (date >= 0) ? Math.max(0, entry.receivedAt - date) : 0;
+        long ageSeconds = parseSeconds(entry.headers.get("Age"));
+        if (ageSeconds >= 0) {
+            receivedAge = Math.max(receivedAge, TimeUnit.SECONDS.toMillis(ageSeconds));
+        }
+        long responseDuration = entry.receivedAt - entry.sentAt;
+        long residentDuration = now - entry.receivedAt;
+        return receivedAge + responseDuration + residentDuration;
+    }
+
+    /**
+     * 响应的有效期(毫秒)，优先使用max-age，其次为Expires与Date之差
+     * @param receivedAt 没有Date头时以收到响应的时间代替
+     */
+    private static long freshnessLifetime(Headers headers, long receivedAt) {
+        CacheControl cacheControl = CacheControl.parse(headers);
+        if (cacheControl.maxAgeSeconds() >= 0) {
+            return TimeUnit.SECONDS.toMillis(cacheControl.maxAgeSeconds());
+        }
+        long expires = RetryInterceptor.parseHttpDate(headers.get("Expires"));
+        if (expires >= 0) {
+            long date = RetryInterceptor.parseHttpDate(headers.get("Date"));
+            return expires - ((date >= 0) ? date : receivedAt);
+        }
+        return 0;
+    }
+
+    /** @return 秒数，格式错误或没有时返回-1 */
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(Long.parseLong(value.trim()), 0);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static List<String> varyNames(Headers headers) {
+        List<String> names = new ArrayList<>();
+        for (String value : headers.values("Vary")) {
+            for (String name : value.split(",")) {
+                name = name.trim().toLowerCase(Locale.US);
+                if (!name.isEmpty() && !names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static String keyOf(Request request, List<String> varyNames) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(request.method()).append(' ').append(request.url());
+        if (varyNames != null) {
+            for (String name : varyNames) {
+                builder.append('\n').append(name).append(':').append(request.headers(name));
+            }
+        }
+        return builder.toString();
+    }
+
+    /** 用304响应中的头替换缓存的同名头，Content-*等描述body的头除外 */
+    private static Headers mergeHeaders(Headers cached, Headers network) {
+        Headers.Builder builder = new Headers.Builder();
+        for (int i = 0; i < cached.size(); i++) {
+            String name = cached.name(i);
+            if (network.get(name) == null || isContentHeader(name)) {
+                builder.add(name, cached.value(i));
+            }
+        }
+        for (int i = 0; i < network.size(); i++) {
+            String name = network.name(i);
+            if (!isContentHeader(name)) {
+                builder.add(name, network.value(i));
+            }
+        }
+        return builder.build();
+    }
+
+    private static boolean isContentHeader(String name) {
+        return name.regionMatches(true, 0, "Content-", 0, 8);
+    }
+
+    private static long headersSize(Headers headers) {
+        long size = 0;
+        for (int i = 0; i < headers.size(); i++) {
+            size += headers.name(i).length() + headers.value(i).length();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,166 @@
+package com.cn21.network.restfulapi;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 类说明:离线队列的日志文件
+ * 每条记录为[长度][CRC32][内容]，只追加写入，一批记录写入后才fsync一次。
+ * 读取时遇到不完整或校验失败的记录即停止，并截掉之后的内容(进程在写入过程中退出)。
+ */
+class OfflineJournal {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // 单条记录的最大长度，超过时认为文件已损坏
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private final File mFile;
+    private FileOutputStream mOut;
+
+    OfflineJournal(File file) {
+        mFile = file;
+    }
+
+    /** 读取所有有效的记录 */
+    List<byte[]> load() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        if (!mFile.exists()) {
+            return records;
+        }
+        long validLength = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                long crc = in.readInt() & 0xFFFFFFFFL;
+                byte[] record = new byte[length];
+                in.readFully(record);
+                CRC32 crc32 = new CRC32();
+                crc32.update(record, 0, record.length);
+                if (crc32.getValue() != crc) {
+                    break;
+                }
+                records.add(record);
+                validLength += 8 + length;
+            }
+        } catch (EOFException e) {
+            // 最后一条记录不完整
+        } finally {
+            in.close();
+        }
+        if (validLength < mFile.length()) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+        return records;
+    }
+
+    /** 追加一批记录并同步到磁盘 */
+    void append(List<byte[]> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (mOut == null) {
+            mOut = new FileOutputStream(mFile, true);
+        }
+        mOut.write(encode(records));
+        mOut.getFD().sync();
+    }
+
+    /** 用给定的记录重写日志，用于去掉已经没有用的记录 */
+    void rewrite(List<byte[]> records) throws IOException {
+        close();
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(encode(records));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(mFile)) {
+            tempFile.delete();
+            throw new IOException("can not rename to " + mFile);
+        }
+    }
+
+    void close() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {}
+            mOut = null;
+        }
+    }
+
+    private static byte[] encode(List<byte[]> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (byte[] record : records) {
+            CRC32 crc32 = new CRC32();
+            crc32.update(record, 0, record.length);
+            out.writeInt(record.length);
+            out.writeInt((int) crc32.getValue());
+            out.write(record);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return (bytes != null) ? new String(bytes, UTF8) : null;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
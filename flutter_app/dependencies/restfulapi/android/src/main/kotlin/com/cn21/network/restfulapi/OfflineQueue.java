@@ -0,0 +1,629 @@
+package com.cn21.network.restfulapi;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 类说明:持久化的离线请求队列
+ * 请求先写入日志({@link OfflineJournal})再执行，网络可用时以有限的并发数重放，
+ * key相同的请求按加入的顺序依次执行。请求完成后结果也写入日志，
+ * 直到Dart端确认收到后才删除，因此即使应用中途重启Dart端也能收到完成事件。
+ * 日志的写入在单独的线程中批量进行，加入队列不会阻塞调用者。
+ * 网络错误或服务器暂时不可用时按指数退避(带随机抖动)重试，服务器返回Retry-After时以其为准；
+ * 重试MAX_ATTEMPTS次或加入队列超过MAX_AGE_MS后不再重试，以最后一次的结果完成。
+ * 同一日志文件只能有一个队列，进程内通过{@link #acquire}共享。
+ */
+class OfflineQueue {
+    private static final String TAG = "OfflineQueue";
+    private static final byte TYPE_ENQUEUE = 1;
+    private static final byte TYPE_COMPLETE = 2;
+    private static final byte TYPE_ACK = 3;
+    private static final int MAX_CONCURRENCY = 4;
+    // 第一次重试的间隔，之后每次加倍，最长MAX_RETRY_DELAY_MS
+    private static final long BASE_RETRY_DELAY_MS = 5 * 1000L;
+    private static final long MAX_RETRY_DELAY_MS = 30 * 60 * 1000L;
+    // 本进程内最多执行的次数
+    private static final int MAX_ATTEMPTS = 10;
+    // 加入队列超过该时间后不再重试
+    private static final long MAX_AGE_MS = 3 * 24 * 60 * 60 * 1000L;
+    // 完成事件中返回的body最大长度
+    private static final int MAX_EVENT_BODY = 64 * 1024;
+
+    /** 完成事件的回调，在工作线程中调用 */
+    interface Listener {
+        void onCompleted(Map<String, Object> event);
+    }
+
+    /** 完成回调，在日志写入磁盘后调用 */
+    interface Durable {
+        void onDurable(String id);
+    }
+
+    private static class Item {
+        String id;
+        String key;
+        String method;
+        String url;
+        Map<String, String> headers;
+        byte[] body;
+        // 加入队列的时间(System.currentTimeMillis)
+        long enqueuedAt;
+        // 本进程内已执行的次数
+        int attempts;
+        // 下次可以执行的时间(SystemClock.elapsedRealtime)
+        long retryAt;
+        // 已写入磁盘后才能执行
+        boolean durable;
+        boolean running;
+        // 不为null时表示已完成，等待Dart端确认
+        Map<String, Object> event;
+    }
+
+    private final OkHttpClient mClient;
+    private final PriorityScheduler mScheduler;
+    private final Handler mMainHandler;
+    private final Context mContext;
+    private final OfflineJournal mJournal;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "OfflineQueue");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 按加入的顺序保存
+    private LinkedHashMap<String, Item> mItems = new LinkedHashMap<>();
+    private final List<byte[]> mPendingRecords = new ArrayList<>();
+    private final List<Runnable> mPendingCallbacks = new ArrayList<>();
+    private boolean mFlushScheduled = false;
+    private int mRunning = 0;
+    // 已安排的重试时间，为0时没有安排
+    private long mRetryAt = 0;
+    private Listener mListener;
+    private final Random mRandom = new Random();
+    // 使用中的插件数，为0时不再监听网络变化
+    private int mRefCount = 0;
+    private boolean mReceiverRegistered = false;
+
+    private static OfflineQueue sInstance;
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            dispatch();
+        }
+    };
+
+    OfflineQueue(Context context, OkHttpClient client, PriorityScheduler scheduler, Handler mainHandler) {
+        mContext = context.getApplicationContext();
+        mClient = client;
+        mScheduler = scheduler;
+        mMainHandler = mainHandler;
+        File dir = new File(mContext.getFilesDir(), "restfulapi");
+        dir.mkdirs();
+        mJournal = new OfflineJournal(new File(dir, "offline_queue.journal"));
+        mWriter.execute(this::load);
+    }
+
+    /**
+     * 获取进程内共享的队列，第一次获取时创建并开始重放日志中的请求
+     * 之后的调用沿用第一次传入的client等参数，不再使用时调用{@link #release}
+     */
+    static synchronized OfflineQueue acquire(Context context, OkHttpClient client, PriorityScheduler scheduler,
+                                             Handler mainHandler) {
+        if (sInstance == null) {
+            sInstance = new OfflineQueue(context, client, scheduler, mainHandler);
+        }
+        sInstance.retain();
+        return sInstance;
+    }
+
+    private synchronized void retain() {
+        mRefCount++;
+        if (!mReceiverRegistered) {
+            mContext.registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            mReceiverRegistered = true;
+        }
+    }
+
+    /**
+     * 插件销毁时调用，最后一个使用者释放后注销网络变化的监听，
+     * 日志中的请求留到下次{@link #acquire}后继续重放
+     * @param listener 该使用者设置的接收者，仍在使用时清除
+     */
+    synchronized void release(Listener listener) {
+        if (listener != null && mListener == listener) {
+            mListener = null;
+        }
+        if (mRefCount > 0 && --mRefCount == 0 && mReceiverRegistered) {
+            mContext.unregisterReceiver(mConnectivityReceiver);
+            mReceiverRegistered = false;
+        }
+    }
+
+    /**
+     * 加入队列
+     * @param key 不为null时与key相同的请求按顺序执行
+     * @param durable 写入磁盘后回调，返回请求的id
+     */
+    void enqueue(String key, String method, String url, Map<String, String> headers, byte[] body,
+                 Durable durable) {
+        Item item = new Item();
+        item.id = UUID.randomUUID().toString();
+        item.key = key;
+        item.method = method;
+        item.url = url;
+        item.headers = (headers != null) ? headers : new HashMap<String, String>();
+        item.body = body;
+        item.enqueuedAt = System.currentTimeMillis();
+        byte[] record;
+        try {
+            record = encodeEnqueue(item);
+        } catch (IOException e) {
+            // 写入内存不会失败
+            throw new IllegalStateException(e);
+        }
+        synchronized (this) {
+            mItems.put(item.id, item);
+        }
+        write(record, () -> {
+            synchronized (OfflineQueue.this) {
+                item.durable = true;
+            }
+            durable.onDurable(item.id);
+            dispatch();
+        });
+    }
+
+    /** Dart端确认收到完成事件后删除该请求 */
+    void ack(String id) {
+        Item item;
+        synchronized (this) {
+            item = mItems.get(id);
+            if (item == null || item.event == null) {
+                return;
+            }
+            mItems.remove(id);
+        }
+        try {
+            write(encodeAck(id), null);
+        } catch (IOException e) {
+            Log.e(TAG, "ack: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 设置完成事件的接收者，设置后会重新发送所有未确认的完成事件
+     * @return 未完成的请求数
+     */
+    int listen(Listener listener) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        int pending = 0;
+        synchronized (this) {
+            mListener = listener;
+            for (Item item : mItems.values()) {
+                if (item.event != null) {
+                    events.add(item.event);
+                } else {
+                    pending++;
+                }
+            }
+        }
+        if (listener != null) {
+            for (Map<String, Object> event : events) {
+                listener.onCompleted(event);
+            }
+        }
+        return pending;
+    }
+
+    synchronized Map<String, Object> stats() {
+        int pending = 0;
+        int unacked = 0;
+        for (Item item : mItems.values()) {
+            if (item.event != null) {
+                unacked++;
+            } else {
+                pending++;
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pending", pending);
+        stats.put("running", mRunning);
+        stats.put("unacked", unacked);
+        return stats;
+    }
+
+    /** 读取日志恢复队列，并去掉日志中已经没有用的记录 */
+    private void load() {
+        LinkedHashMap<String, Item> loaded = new LinkedHashMap<>();
+        try {
+            for (byte[] record : mJournal.load()) {
+                applyRecord(loaded, record);
+            }
+            List<byte[]> live = new ArrayList<>();
+            for (Item item : loaded.values()) {
+                item.durable = true;
+                live.add(encodeEnqueue(item));
+                if (item.event != null) {
+                    live.add(encodeComplete(item.id, item.event));
+                }
+            }
+            mJournal.rewrite(live);
+        } catch (IOException e) {
+            Log.e(TAG, "load: " + e.getMessage());
+        }
+        List<Map<String, Object>> events = new ArrayList<>();
+        Listener listener;
+        synchronized (this) {
+            // 日志中的请求早于启动后加入的请求
+            loaded.putAll(mItems);
+            mItems = loaded;
+            listener = mListener;
+            if (listener != null) {
+                for (Item item : loaded.values()) {
+                    if (item.event != null) {
+                        events.add(item.event);
+                    }
+                }
+            }
+        }
+        for (Map<String, Object> event : events) {
+            listener.onCompleted(event);
+        }
+        dispatch();
+    }
+
+    private void write(byte[] record, Runnable callback) {
+        synchronized (this) {
+            mPendingRecords.add(record);
+            if (callback != null) {
+                mPendingCallbacks.add(callback);
+            }
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        mWriter.execute(this::flush);
+    }
+
+    /** 批量写入等待中的记录，只fsync一次 */
+    private void flush() {
+        List<byte[]> records;
+        List<Runnable> callbacks;
+        synchronized (this) {
+            records = new ArrayList<>(mPendingRecords);
+            callbacks = new ArrayList<>(mPendingCallbacks);
+            mPendingRecords.clear();
+            mPendingCallbacks.clear();
+            mFlushScheduled = false;
+        }
+        try {
+            mJournal.append(records);
+            boolean empty;
+            synchronized (this) {
+                empty = mItems.isEmpty() && mPendingRecords.isEmpty();
+            }
+            if (empty) {
+                // 所有请求都已确认，清空日志
+                mJournal.rewrite(new ArrayList<byte[]>());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "flush: " + e.getMessage());
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager manager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = (manager != null) ? manager.getActiveNetworkInfo() : null;
+        return info != null && info.isConnected();
+    }
+
+    /** 在并发数限制内执行可以执行的请求 */
+    private void dispatch() {
+        if (!isConnected()) {
+            return;
+        }
+        List<Item> ready = new ArrayList<>();
+        long now = SystemClock.elapsedRealtime();
+        long nextRetryAt = 0;
+        synchronized (this) {
+            Set<String> blockedKeys = new HashSet<>();
+            for (Item item : mItems.values()) {
+                if (mRunning >= MAX_CONCURRENCY) {
+                    break;
+                }
+                if (item.event != null) {
+                    continue;
+                }
+                // key相同的请求中只有最早未完成的一个可以执行
+                boolean blocked = item.key != null && !blockedKeys.add(item.key);
+                if (blocked || item.running || !item.durable) {
+                    continue;
+                }
+                if (item.retryAt > now) {
+                    nextRetryAt = (nextRetryAt == 0) ? item.retryAt : Math.min(nextRetryAt, item.retryAt);
+                    continue;
+                }
+                item.running = true;
+                item.attempts++;
+                mRunning++;
+                ready.add(item);
+            }
+        }
+        if (nextRetryAt != 0) {
+            scheduleRetry(nextRetryAt);
+        }
+        for (Item item : ready) {
+            execute(item);
+        }
+    }
+
+    private void execute(Item item) {
+        Call call;
+        try {
+            RequestBody body = "GET".equals(item.method) || "HEAD".equals(item.method)
+                    ? null
+                    : RequestBody.create(null, (item.body != null) ? item.body : new byte[0]);
+            Request request = BandwidthLimiter.tag(new Request.Builder(), PriorityScheduler.BACKGROUND)
+                    .method(item.method, body)
+                    .url(item.url)
+                    .headers(Headers.of(item.headers))
+                    .build();
+            call = mClient.newCall(request);
+        } catch (IllegalArgumentException e) {
+            // 请求本身有错误，重试也不会成功
+            complete(item, failureEvent(item, e));
+            return;
+        }
+        mScheduler.enqueue(call, PriorityScheduler.BACKGROUND, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (!retryLater(item, -1)) {
+                    complete(item, failureEvent(item, e));
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                int code = response.code();
+                if (code == 408 || code == 429 || code >= 500) {
+                    long retryAfter = RetryInterceptor.parseRetryAfter(response.header("Retry-After"));
+                    if (retryLater(item, retryAfter)) {
+                        response.close();
+                        return;
+                    }
+                }
+                Map<String, Object> event = baseEvent(item);
+                event.put("statusCode", code);
+                ResponseBody body = response.body();
+                try {
+                    if (body != null) {
+                        byte[] bytes = body.source().request(MAX_EVENT_BODY + 1)
+                                ? null
+                                : body.source().readByteArray();
+                        if (bytes != null) {
+                            event.put("body", bytes);
+                        }
+                    }
+                } catch (IOException e) {
+                    // body读取失败不影响请求的结果
+                } finally {
+                    response.close();
+                }
+                complete(item, event);
+            }
+        });
+    }
+
+    /**
+     * 安排稍后重试
+     * @param retryAfterMs 服务器要求等待的时间，小于0时按指数退避计算
+     * @return 已达到重试次数或时间的上限时返回false，由调用者以本次的结果完成
+     */
+    private boolean retryLater(Item item, long retryAfterMs) {
+        if (item.attempts >= MAX_ATTEMPTS || System.currentTimeMillis() - item.enqueuedAt >= MAX_AGE_MS) {
+            return false;
+        }
+        long delay = (retryAfterMs >= 0) ? retryAfterMs : backoffDelay(item.attempts);
+        long retryAt = SystemClock.elapsedRealtime() + delay;
+        synchronized (this) {
+            item.running = false;
+            item.retryAt = retryAt;
+            mRunning--;
+        }
+        scheduleRetry(retryAt);
+        // 空出的并发数可以执行其它请求
+        dispatch();
+        return true;
+    }
+
+    /** 第attempts次执行失败后的等待时间，在[delay/2, delay)之间随机以免大量请求同时重试 */
+    private long backoffDelay(int attempts) {
+        long delay = BASE_RETRY_DELAY_MS << Math.min(attempts - 1, 16);
+        delay = Math.min(delay, MAX_RETRY_DELAY_MS);
+        synchronized (mRandom) {
+            return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+        }
+    }
+
+    /** 在retryAt时重新调度，已安排的时间更早时不需要再安排 */
+    private void scheduleRetry(long retryAt) {
+        synchronized (this) {
+            if (mRetryAt != 0 && mRetryAt <= retryAt) {
+                return;
+            }
+            mRetryAt = retryAt;
+        }
+        mMainHandler.postDelayed(() -> {
+            synchronized (OfflineQueue.this) {
+                if (mRetryAt != retryAt) {
+                    // 已安排了更早的重试
+                    return;
+                }
+                mRetryAt = 0;
+            }
+            dispatch();
+        }, Math.max(retryAt - SystemClock.elapsedRealtime(), 0));
+    }
+
+    private void complete(Item item, Map<String, Object> event) {
+        byte[] record;
+        try {
+            record = encodeComplete(item.id, event);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        write(record, () -> {
+            Listener listener;
+            synchronized (OfflineQueue.this) {
+                item.running = false;
+                item.event = event;
+                mRunning--;
+                listener = mListener;
+            }
+            if (listener != null) {
+                listener.onCompleted(event);
+            }
+            dispatch();
+        });
+    }
+
+    private static Map<String, Object> baseEvent(Item item) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", item.id);
+        event.put("key", item.key);
+        event.put("method", item.method);
+        event.put("url", item.url);
+        return event;
+    }
+
+    private static Map<String, Object> failureEvent(Item item, Exception e) {
+        Map<String, Object> event = baseEvent(item);
+        event.put("excpetion", e.getClass().getName());
+        event.put("exceptionMsg", e.getMessage());
+        return event;
+    }
+
+    private static byte[] encodeEnqueue(Item item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_ENQUEUE);
+        OfflineJournal.writeString(out, item.id);
+        OfflineJournal.writeString(out, item.key);
+        OfflineJournal.writeString(out, item.method);
+        OfflineJournal.writeString(out, item.url);
+        out.writeInt(item.headers.size());
+        for (Map.Entry<String, String> header : item.headers.entrySet()) {
+            OfflineJournal.writeString(out, header.getKey());
+            OfflineJournal.writeString(out, header.getValue());
+        }
+        OfflineJournal.writeBytes(out, item.body);
+        out.writeLong(item.enqueuedAt);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeComplete(String id, Map<String, Object> event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_COMPLETE);
+        OfflineJournal.writeString(out, id);
+        Object statusCode = event.get("statusCode");
+        out.writeInt((statusCode instanceof Integer) ? (Integer) statusCode : -1);
+        OfflineJournal.writeBytes(out, (byte[]) event.get("body"));
+        OfflineJournal.writeString(out, (String) event.get("excpetion"));
+        OfflineJournal.writeString(out, (String) event.get("exceptionMsg"));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeAck(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_ACK);
+        OfflineJournal.writeString(out, id);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void applyRecord(Map<String, Item> items, byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        String id = OfflineJournal.readString(in);
+        if (type == TYPE_ENQUEUE) {
+            Item item = new Item();
+            item.id = id;
+            item.key = OfflineJournal.readString(in);
+            item.method = OfflineJournal.readString(in);
+            item.url = OfflineJournal.readString(in);
+            int headerCount = in.readInt();
+            item.headers = new HashMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                item.headers.put(OfflineJournal.readString(in), OfflineJournal.readString(in));
+            }
+            item.body = OfflineJournal.readBytes(in);
+            // 旧版本的记录没有加入时间，从读取时开始计算
+            item.enqueuedAt = (in.available() >= 8) ? in.readLong() : System.currentTimeMillis();
+            items.put(id, item);
+        } else if (type == TYPE_COMPLETE) {
+            Item item = items.get(id);
+            if (item == null) {
+                return;
+            }
+            Map<String, Object> event = baseEvent(item);
+            int statusCode = in.readInt();
+            if (statusCode >= 0) {
+                event.put("statusCode", statusCode);
+            }
+            byte[] body = OfflineJournal.readBytes(in);
+            if (body != null) {
+                event.put("body", body);
+            }
+            String exception = OfflineJournal.readString(in);
+            if (exception != null) {
+                event.put("excpetion", exception);
+                event.put("exceptionMsg", OfflineJournal.readString(in));
+            }
+            item.event = event;
+        } else if (type == TYPE_ACK) {
+            items.remove(id);
+        }
+    }
+}
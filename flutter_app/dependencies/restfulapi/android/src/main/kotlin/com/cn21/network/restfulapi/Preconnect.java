@@ -0,0 +1,19 @@
+package com.cn21.network.restfulapi;
+
+import okhttp3.Request;
+
+/**
+ * 类说明:预连接请求的tag
+ * 预连接实际会发送一个HEAD请求，带有该tag的请求不计入延迟直方图及优先级队列的排队统计。
+ * 预连接请求不带重试、内存缓存、压缩等tag，相应的拦截器也不会处理。
+ */
+final class Preconnect {
+    static final Preconnect TAG = new Preconnect();
+
+    private Preconnect() {
+    }
+
+    static boolean is(Request request) {
+        return request.tag(Preconnect.class) != null;
+    }
+}
@@ -0,0 +1,221 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * 类说明:按优先级调度请求
+ * 请求先进入所属优先级的队列，有空闲的并发额度时按优先级从高到低交给OkHttp执行，
+ * 请求的回调结束(包括body发送完毕)后释放额度。
+ * 总并发数中为interactive保留一部分，background另有单独的并发上限，
+ * 因此大量后台请求不会占满并发额度，高优先级的请求总是先于排队中的低优先级请求执行。
+ * 每个host同时执行的请求数另有上限(与OkHttp默认值相同)，已达上限的host的请求继续排队，
+ * 不影响同一优先级中其它host的请求。
+ */
+class PriorityScheduler {
+    static final int INTERACTIVE = 0;
+    static final int NORMAL = 1;
+    static final int BACKGROUND = 2;
+    private static final String[] LANE_NAMES = {"interactive", "normal", "background"};
+
+    // 同时执行的最大请求数，OkHttp的Dispatcher的限制参考DISPATCHER_HEADROOM
+    static final int MAX_CONCURRENCY = 32;
+    // 只能由interactive使用的并发数
+    private static final int INTERACTIVE_RESERVED = 8;
+    // background最多同时执行的请求数
+    private static final int BACKGROUND_MAX = 8;
+    // 每个host最多同时执行的请求数
+    static final int MAX_PER_HOST = 5;
+    // 额度在回调结束时释放，早于OkHttp的Dispatcher移除该请求，新开始的请求可能暂时超出上述限制。
+    // Dispatcher的限制设为上述限制的倍数，同时结束的请求最多与正在执行的一样多，因此请求不会在Dispatcher中排队
+    static final int DISPATCHER_HEADROOM = 2;
+
+    private final Lane[] mLanes = {new Lane(), new Lane(), new Lane()};
+    private int mRunning = 0;
+    // host -> 正在执行的请求数
+    private final Map<String, Integer> mHostRunning = new HashMap<>();
+
+    /** 某个优先级的队列及统计信息 */
+    private static class Lane {
+        final ArrayDeque<Task> queue = new ArrayDeque<>();
+        int running;
+        long started;
+        long totalWaitNanos;
+        long maxWaitNanos;
+    }
+
+    private static class Task {
+        final Call call;
+        final int lane;
+        final Callback callback;
+        final String host;
+        final long enqueueTime = System.nanoTime();
+        // 是否占用了并发额度
+        boolean counted;
+
+        Task(Call call, int lane, Callback callback) {
+            this.call = call;
+            this.lane = lane;
+            this.callback = callback;
+            this.host = call.request().url().host();
+        }
+    }
+
+    /** 解析优先级名称，未知或为null时为normal */
+    static int laneOf(String priority) {
+        for (int i = 0; i < LANE_NAMES.length; i++) {
+            if (LANE_NAMES[i].equals(priority)) {
+                return i;
+            }
+        }
+        return NORMAL;
+    }
+
+    void enqueue(Call call, int lane, Callback callback) {
+        synchronized (this) {
+            mLanes[lane].queue.add(new Task(call, lane, callback));
+        }
+        promote();
+    }
+
+    /** 有请求被取消时调用，排队中已取消的请求不再等待额度，直接交给OkHttp结束 */
+    void onCanceled() {
+        promote();
+    }
+
+    /** 是否有前台(interactive或normal)请求正在执行 */
+    synchronized boolean hasForegroundRunning() {
+        return mLanes[INTERACTIVE].running + mLanes[NORMAL].running > 0;
+    }
+
+    /** 每个优先级的排队数、执行数、已开始数及排队时间 */
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        for (int i = 0; i < mLanes.length; i++) {
+            Lane lane = mLanes[i];
+            Map<String, Object> laneStats = new HashMap<>();
+            laneStats.put("queued", lane.queue.size());
+            laneStats.put("running", lane.running);
+            laneStats.put("started", lane.started);
+            laneStats.put("avgWaitMs", (lane.started > 0)
+                    ? TimeUnit.NANOSECONDS.toMillis(lane.totalWaitNanos / lane.started) : 0L);
+            laneStats.put("maxWaitMs", TimeUnit.NANOSECONDS.toMillis(lane.maxWaitNanos));
+            stats.put(LANE_NAMES[i], laneStats);
+        }
+        return stats;
+    }
+
+    private void promote() {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < mLanes.length; i++) {
+                Lane lane = mLanes[i];
+                // 已取消的请求不占用额度
+                for (Iterator<Task> iterator = lane.queue.iterator(); iterator.hasNext(); ) {
+                    Task task = iterator.next();
+                    if (task.call.isCanceled()) {
+                        iterator.remove();
+                        ready.add(task);
+                    }
+                }
+                while (!lane.queue.isEmpty() && canRun(i)) {
+                    Task task = pollRunnable(lane);
+                    if (task == null) {
+                        break;
+                    }
+                    lane.running++;
+                    // 预连接请求不计入排队统计
+                    if (!Preconnect.is(task.call.request())) {
+                        long waitNanos = System.nanoTime() - task.enqueueTime;
+                        lane.started++;
+                        lane.totalWaitNanos += waitNanos;
+                        lane.maxWaitNanos = Math.max(lane.maxWaitNanos, waitNanos);
+                    }
+                    mRunning++;
+                    Integer hostRunning = mHostRunning.get(task.host);
+                    mHostRunning.put(task.host, (hostRunning != null) ? hostRunning + 1 : 1);
+                    task.counted = true;
+                    ready.add(task);
+                }
+            }
+        }
+        for (Task task : ready) {
+            start(task);
+        }
+    }
+
+    /** 取出队列中第一个所属host未达上限的请求 */
+    private Task pollRunnable(Lane lane) {
+        for (Iterator<Task> iterator = lane.queue.iterator(); iterator.hasNext(); ) {
+            Task task = iterator.next();
+            Integer hostRunning = mHostRunning.get(task.host);
+            if (hostRunning == null || hostRunning < MAX_PER_HOST) {
+                iterator.remove();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private boolean canRun(int lane) {
+        if (mRunning >= MAX_CONCURRENCY) {
+            return false;
+        }
+        if (lane == INTERACTIVE) {
+            return true;
+        }
+        if (mRunning >= MAX_CONCURRENCY - INTERACTIVE_RESERVED) {
+            return false;
+        }
+        return lane != BACKGROUND || mLanes[BACKGROUND].running < BACKGROUND_MAX;
+    }
+
+    private void start(Task task) {
+        task.call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                try {
+                    task.callback.onFailure(call, e);
+                } finally {
+                    finished();
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    task.callback.onResponse(call, response);
+                } finally {
+                    finished();
+                }
+            }
+
+            private void finished() {
+                if (!task.counted) {
+                    return;
+                }
+                synchronized (PriorityScheduler.this) {
+                    mLanes[task.lane].running--;
+                    mRunning--;
+                    Integer hostRunning = mHostRunning.get(task.host);
+                    if (hostRunning != null && hostRunning > 1) {
+                        mHostRunning.put(task.host, hostRunning - 1);
+                    } else {
+                        mHostRunning.remove(task.host);
+                    }
+                }
+                promote();
+            }
+        });
+    }
+}
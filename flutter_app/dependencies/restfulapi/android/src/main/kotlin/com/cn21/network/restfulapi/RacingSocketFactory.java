@@ -0,0 +1,207 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.SocketFactory;
+
+/**
+ * 类说明:IPv4/IPv6地址竞速连接(Happy Eyeballs)
+ * 连接{@link CachingDns}返回的第一个地址时，如果FALLBACK_DELAY_MS内仍未连接成功，
+ * 同时连接另一个地址族的第一个地址。先连接成功的一方获胜:
+ * 第一个地址获胜时关闭另一个连接；另一个地址族获胜时中止第一个地址的连接，
+ * OkHttp随即尝试下一个地址(即另一个地址族的地址)，不再等待连接超时。
+ * 获胜的连接只用于判断可用的地址族，随后关闭，OkHttp的连接由Socket本身建立。
+ */
+class RacingSocketFactory extends SocketFactory {
+    // 第一个地址连接多久未成功后开始连接另一个地址族
+    static final long FALLBACK_DELAY_MS = 250;
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "RacingSocketFactory");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CachingDns mDns;
+
+    RacingSocketFactory(CachingDns dns) {
+        mDns = dns;
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new RacingSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    /** 一次竞速的状态，以自身为锁 */
+    private static class Race implements Runnable {
+        private static final int RACING = 0;
+        private static final int PRIMARY_WON = 1;
+        private static final int FALLBACK_WON = 2;
+        private static final int PRIMARY_FAILED = 3;
+
+        private final Socket mPrimary;
+        private final InetSocketAddress mFallbackAddress;
+        private final int mTimeout;
+        private int mState = RACING;
+        private Socket mFallback;
+
+        Race(Socket primary, InetSocketAddress fallbackAddress, int timeout) {
+            mPrimary = primary;
+            mFallbackAddress = fallbackAddress;
+            mTimeout = timeout;
+        }
+
+        @Override
+        public void run() {
+            Socket fallback;
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + FALLBACK_DELAY_MS;
+                long remaining;
+                while (mState == RACING && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mState != RACING) {
+                    return;
+                }
+                fallback = new Socket();
+                mFallback = fallback;
+            }
+            boolean connected = false;
+            try {
+                fallback.connect(mFallbackAddress, mTimeout);
+                connected = true;
+            } catch (IOException e) {
+                // 另一个地址族也不可用，等待第一个地址的结果
+            }
+            boolean won;
+            synchronized (this) {
+                won = connected && mState == RACING;
+                if (won) {
+                    mState = FALLBACK_WON;
+                }
+            }
+            closeQuietly(fallback);
+            if (won) {
+                // 中止第一个地址的连接
+                closeQuietly(mPrimary);
+            }
+        }
+
+        /** @return 为false时另一个地址族已经获胜 */
+        boolean primaryConnected() {
+            Socket fallback;
+            synchronized (this) {
+                if (mState == FALLBACK_WON) {
+                    return false;
+                }
+                mState = PRIMARY_WON;
+                fallback = mFallback;
+                notifyAll();
+            }
+            closeQuietly(fallback);
+            return true;
+        }
+
+        /**
+         * 第一个地址连接失败，结束竞速，OkHttp会接着尝试下一个地址
+         * @return 是否因另一个地址族获胜而失败
+         */
+        boolean primaryFailed() {
+            Socket fallback;
+            synchronized (this) {
+                if (mState == FALLBACK_WON) {
+                    return true;
+                }
+                mState = PRIMARY_FAILED;
+                fallback = mFallback;
+                notifyAll();
+            }
+            closeQuietly(fallback);
+            return false;
+        }
+
+        private static void closeQuietly(Socket socket) {
+            if (socket == null) {
+                return;
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    private class RacingSocket extends Socket {
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            InetAddress fallback = null;
+            if (endpoint instanceof InetSocketAddress) {
+                fallback = mDns.fallbackOf(((InetSocketAddress) endpoint).getAddress());
+            }
+            if (fallback == null) {
+                super.connect(endpoint, timeout);
+                return;
+            }
+            InetSocketAddress fallbackAddress = new InetSocketAddress(fallback,
+                    ((InetSocketAddress) endpoint).getPort());
+            Race race = new Race(this, fallbackAddress, timeout);
+            sExecutor.execute(race);
+            try {
+                super.connect(endpoint, timeout);
+            } catch (IOException e) {
+                if (race.primaryFailed()) {
+                    throw new ConnectException("lost race to " + fallbackAddress);
+                }
+                throw e;
+            }
+            if (!race.primaryConnected()) {
+                // 连接成功的同时另一个地址族已获胜并关闭了本连接
+                throw new ConnectException("lost race to " + fallbackAddress);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.cn21.network.restfulapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import okhttp3.Call;
+
+/**
+ * 类说明:合并正在执行的相同请求
+ * 同一client中method、url、请求头及响应处理方式都相同的GET/HEAD请求共享一个Call，
+ * 响应到达后分发给所有等待的请求。响应头到达后合并组即结束，之后的相同请求会重新发起。
+ */
+class RequestCoalescer {
+    private final Map<String, Group> mGroups = new HashMap<>();
+    // 请求key(参考CallRegistry#key) -> 合并组key
+    private final Map<Long, String> mTargetKeys = new HashMap<>();
+
+    /** 共享同一个Call的请求 */
+    private static class Group {
+        final Call call;
+        final List<ResponseTarget> targets = new ArrayList<>();
+
+        Group(Call call) {
+            this.call = call;
+        }
+    }
+
+    /**
+     * 生成合并key
+     * @param variant 影响响应处理方式的选项，不同时不能合并
+     * @return 请求不能合并时返回null
+     */
+    static String keyOf(int clientId, String method, String url, Map<String, String> headers, String variant) {
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(clientId).append(' ').append(method).append(' ').append(url)
+                .append(' ').append(variant);
+        if (headers != null) {
+            // 请求头按名称排序，名称不区分大小写
+            Map<String, String> sorted = new TreeMap<>();
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                sorted.put(header.getKey().toLowerCase(), header.getValue());
+            }
+            for (Map.Entry<String, String> header : sorted.entrySet()) {
+                builder.append('\n').append(header.getKey()).append(':').append(header.getValue());
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 加入正在执行的相同请求
+     * @return 没有相同的请求时返回false，此时需要调用{@link #begin}发起新的请求
+     */
+    synchronized boolean join(String key, ResponseTarget target) {
+        Group group = mGroups.get(key);
+        if (group == null) {
+            return false;
+        }
+        group.targets.add(target);
+        mTargetKeys.put(CallRegistry.key(target.clientId, target.requestId), key);
+        return true;
+    }
+
+    synchronized void begin(String key, ResponseTarget target, Call call) {
+        Group group = new Group(call);
+        group.targets.add(target);
+        mGroups.put(key, group);
+        mTargetKeys.put(CallRegistry.key(target.clientId, target.requestId), key);
+    }
+
+    /**
+     * 结束合并组，之后的相同请求不再加入该组
+     * @return 等待响应的所有请求
+     */
+    synchronized List<ResponseTarget> finish(String key) {
+        Group group = mGroups.remove(key);
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        for (ResponseTarget target : group.targets) {
+            mTargetKeys.remove(CallRegistry.key(target.clientId, target.requestId));
+        }
+        return group.targets;
+    }
+
+    /**
+     * 取消合并组中的某个请求
+     * 组中还有其它请求时只将该请求移出合并组并加入detached，Call继续执行；
+     * 否则返回需要取消的Call，该请求仍通过Call的失败回调得到结果。
+     * @return 请求不在合并组中或还有其它请求时返回null
+     */
+    synchronized Call leave(int clientId, int requestId, List<ResponseTarget> detached) {
+        long targetKey = CallRegistry.key(clientId, requestId);
+        String key = mTargetKeys.get(targetKey);
+        Group group = (key != null) ? mGroups.get(key) : null;
+        if (group == null) {
+            return null;
+        }
+        if (group.targets.size() <= 1) {
+            return group.call;
+        }
+        for (int i = 0; i < group.targets.size(); i++) {
+            ResponseTarget target = group.targets.get(i);
+            if (target.clientId == clientId && target.requestId == requestId) {
+                group.targets.remove(i);
+                mTargetKeys.remove(targetKey);
+                detached.add(target);
+                break;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,129 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.internal.http.UnrepeatableRequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.DeflaterSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * 类说明:压缩请求body
+ * 按请求的tag({@link Config})以gzip或deflate流式压缩body并设置Content-Encoding，
+ * 压缩在写入body时进行(OkHttp的工作线程)，不需要先把整个body读入内存。
+ * 长度已知且小于阈值的body不压缩，长度未知(如Dart端流式发送)的body总是压缩。
+ */
+class RequestCompressor implements Interceptor {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    /** 请求的压缩设置 */
+    static class Config {
+        final String encoding;
+        final long minSize;
+
+        Config(String encoding, long minSize) {
+            this.encoding = encoding;
+            this.minSize = minSize;
+        }
+
+        /**
+         * 解析压缩参数: true或"gzip"为gzip，"deflate"为deflate
+         * @return 不压缩时返回null
+         */
+        static String parseEncoding(Object value) {
+            if (Boolean.TRUE.equals(value) || GZIP.equals(value)) {
+                return GZIP;
+            }
+            return DEFLATE.equals(value) ? DEFLATE : null;
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Config config = request.tag(Config.class);
+        RequestBody body = request.body();
+        if (config == null || body == null || request.header("Content-Encoding") != null) {
+            return chain.proceed(request);
+        }
+        long contentLength = body.contentLength();
+        if (contentLength >= 0 && contentLength < config.minSize) {
+            return chain.proceed(request);
+        }
+        Request compressed = request.newBuilder()
+                .header("Content-Encoding", config.encoding)
+                .method(request.method(), (body instanceof UnrepeatableRequestBody)
+                        ? new UnrepeatableCompressedRequestBody(body, config.encoding)
+                        : new CompressedRequestBody(body, config.encoding))
+                .build();
+        return chain.proceed(compressed);
+    }
+
+    /** 保留不能重放的标记，避免OkHttp重放压缩后的body */
+    private static class UnrepeatableCompressedRequestBody extends CompressedRequestBody
+            implements UnrepeatableRequestBody {
+        UnrepeatableCompressedRequestBody(RequestBody delegate, String encoding) {
+            super(delegate, encoding);
+        }
+    }
+
+    private static class CompressedRequestBody extends RequestBody {
+        private final RequestBody mDelegate;
+        private final String mEncoding;
+
+        CompressedRequestBody(RequestBody delegate, String encoding) {
+            mDelegate = delegate;
+            mEncoding = encoding;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            // 压缩后的长度未知，使用chunked传输
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            // 关闭压缩流时只结束压缩，不关闭OkHttp的sink
+            Sink target = new ForwardingSink(sink) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            Sink compressor;
+            Deflater deflater;
+            if (GZIP.equals(mEncoding)) {
+                GzipSink gzipSink = new GzipSink(target);
+                compressor = gzipSink;
+                deflater = gzipSink.deflater();
+            } else {
+                deflater = new Deflater();
+                compressor = new DeflaterSink(target, deflater);
+            }
+            try {
+                BufferedSink compressed = Okio.buffer(compressor);
+                mDelegate.writeTo(compressed);
+                compressed.close();
+            } finally {
+                // 写入失败时不再写入压缩结尾，只释放Deflater的native内存，重复调用end()没有影响
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.cn21.network.restfulapi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 类说明:请求分组索引
+ * execute及download可以指定group，通常为发起请求的页面容器的instanceKey，
+ * 页面销毁时取消该分组的所有请求。key与{@link CallRegistry#key(int, int)}相同。
+ * 请求结束时需要调用{@link #leave(long)}，否则分组会一直持有其key。
+ */
+class RequestGroups {
+    private final Map<String, Set<Long>> mGroups = new HashMap<>();
+    private final Map<Long, String> mKeyGroups = new HashMap<>();
+
+    synchronized void join(String group, long key) {
+        Set<Long> keys = mGroups.get(group);
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            mGroups.put(group, keys);
+        }
+        keys.add(key);
+        mKeyGroups.put(key, group);
+    }
+
+    synchronized void leave(long key) {
+        String group = mKeyGroups.remove(key);
+        if (group == null) {
+            return;
+        }
+        Set<Long> keys = mGroups.get(group);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            mGroups.remove(group);
+        }
+    }
+
+    /**
+     * 移除分组并返回其中的所有key
+     */
+    synchronized List<Long> take(String group) {
+        Set<Long> keys = mGroups.remove(group);
+        if (keys == null) {
+            return new ArrayList<>(0);
+        }
+        for (Long key : keys) {
+            mKeyGroups.remove(key);
+        }
+        return new ArrayList<>(keys);
+    }
+
+    /** 当前有请求的分组数 */
+    synchronized int size() {
+        return mGroups.size();
+    }
+}
@@ -0,0 +1,95 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+import okhttp3.Call;
+
+/**
+ * 类说明:响应body发送的流控额度
+ * Dart端通过响应channel以8字节大端整数的形式授予额度(字节数)，
+ * 原生端每发送一个数据块消耗相应额度，额度用完时读取线程阻塞等待，
+ * 暂停从socket读取数据，以限制每个请求在途的内存。
+ * 不启用流控时也需要等待Dart端的第一个消息(表示已开始监听)才开始发送，之后不再限制额度。
+ */
+class ResponseFlowControl {
+    // 等待额度时检查请求是否已取消的间隔
+    private static final long CHECK_INTERVAL_MS = 200;
+
+    private final Call mCall;
+    private final long mStallTimeoutMs;
+    // 为true时收到第一个消息后不再限制额度
+    private final boolean mUnlimited;
+    private long mCredit;
+    private boolean mClosed = false;
+
+    /**
+     * @param call 对应的请求
+     * @param initialCredit 初始额度
+     * @param stallTimeoutMs 无额度时最长的等待时间，0表示一直等待直到请求取消
+     * @param unlimited 是否只等待Dart端开始监听，不限制额度
+     */
+    ResponseFlowControl(Call call, long initialCredit, long stallTimeoutMs, boolean unlimited) {
+        mCall = call;
+        mCredit = initialCredit;
+        mStallTimeoutMs = stallTimeoutMs;
+        mUnlimited = unlimited;
+    }
+
+    /** 处理Dart端发送的额度消息 */
+    void onCreditMessage(ByteBuffer message) {
+        if (mUnlimited) {
+            open();
+        } else if (message != null && message.remaining() >= 8) {
+            grant(message.getLong(message.position()));
+        }
+    }
+
+    synchronized void grant(long bytes) {
+        if (bytes > 0) {
+            mCredit += bytes;
+            notifyAll();
+        }
+    }
+
+    /** 不再限制额度 */
+    private synchronized void open() {
+        mCredit = Long.MAX_VALUE / 2;
+        notifyAll();
+    }
+
+    /** 结束流控，唤醒等待的读取线程 */
+    synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * 等待直到有可用额度
+     * @return 当前可用的额度
+     */
+    synchronized long awaitCredit() throws IOException {
+        long waited = 0;
+        while (mCredit <= 0) {
+            if (mClosed || mCall.isCanceled()) {
+                throw new IOException("Canceled");
+            }
+            if (mStallTimeoutMs > 0 && waited >= mStallTimeoutMs) {
+                throw new SocketTimeoutException("response flow control stalled");
+            }
+            try {
+                wait(CHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            waited += CHECK_INTERVAL_MS;
+        }
+        return mCredit;
+    }
+
+    synchronized void consume(long bytes) {
+        mCredit -= bytes;
+    }
+}
@@ -0,0 +1,49 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.StandardMessageCodec;
+
+/**
+ * 类说明:等待某个响应的Dart端请求
+ * 请求合并后一个响应会分发给多个ResponseTarget，每个ResponseTarget有独立的body channel及流控。
+ * body channel上的每个消息第一个字节为类型: FRAME_DATA之后为数据，FRAME_ERROR之后为以StandardMessageCodec
+ * 编码的异常信息(excpetion、exceptionMsg)，出错后不再发送其它消息；正常结束时发送null。
+ */
+class ResponseTarget {
+    static final byte FRAME_DATA = 0;
+    static final byte FRAME_ERROR = 1;
+
+    final int clientId;
+    final int requestId;
+    final MethodChannel.Result result;
+    // 以流的形式返回body时使用
+    BasicMessageChannel<ByteBuffer> bodyChannel;
+    ResponseFlowControl flowControl;
+    // body发送过程中出错(如流控超时)后不再向其发送数据
+    boolean dropped;
+
+    ResponseTarget(int clientId, int requestId, MethodChannel.Result result) {
+        this.clientId = clientId;
+        this.requestId = requestId;
+        this.result = result;
+    }
+
+    /** 生成表示出错结束的消息 */
+    static ByteBuffer errorFrame(IOException e) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("excpetion", e.getClass().getName());
+        error.put("exceptionMsg", e.getMessage());
+        ByteBuffer encoded = StandardMessageCodec.INSTANCE.encodeMessage(error);
+        encoded.flip();
+        ByteBuffer frame = ByteBuffer.allocateDirect(encoded.remaining() + 1);
+        frame.put(FRAME_ERROR);
+        frame.put(encoded);
+        return frame;
+    }
+}
@@ -1,26 +1,49 @@
 package com.cn21.network.restfulapi;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.flutter.plugin.common.BasicMessageChannel;
 import io.flutter.plugin.common.BinaryCodec;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.PluginRegistry;
+import io.flutter.plugin.common.StandardMessageCodec;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
 
 /**
  * 类说明:HttpClient通用插件
@@ -29,17 +52,108 @@ import okhttp3.ResponseBody;
 public class RestfulClientPlugin implements MethodChannel.MethodCallHandler {
     public static final String CHANNEL = "com.cn21.network.restfulapi/RestfulClientPlugin";
     private static final String TAG = "HttpClientFlutterPlugin";
+    // 连接池默认参数(与OkHttp默认值一致)
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    private static final long DEFAULT_KEEP_ALIVE_MS = 5 * 60 * 1000L;
+    // 检查空闲client的间隔
+    private static final long IDLE_SWEEP_INTERVAL_MS = 30 * 1000L;
+    // 默认磁盘缓存的最大字节数
+    private static final long DEFAULT_DISK_CACHE_SIZE = 20 * 1024 * 1024L;
+    // 默认压缩请求body的最小长度
+    private static final long DEFAULT_COMPRESS_MIN_SIZE = 1024L;
+    // 默认直接在execute结果中返回body的最大长度
+    private static final long DEFAULT_INLINE_BODY_LIMIT = 64 * 1024L;
+    // 保存文件的fsync策略
+    private static final String FSYNC_ON_COMPLETE = "onComplete";
+    private static final String FSYNC_PERIODIC = "periodic";
+    private static final long FSYNC_INTERVAL_BYTES = 4 * 1024 * 1024L;
+    private static final long SAVE_SEGMENT_SIZE = 64 * 1024L;
+    // 在原生端解析JSON的响应类型
+    private static final String RESPONSE_TYPE_JSON = "json";
+    // 边下载边解析JSON数组并分批发送元素的响应类型
+    private static final String RESPONSE_TYPE_JSON_STREAM = "jsonStream";
+    // 流式请求body在原生端最多缓冲的字节数
+    private static final long REQUEST_BODY_WINDOW = 256 * 1024L;
+    // 页面容器(UniFlutterContainerActivity/Fragment)销毁时的本地广播，
+    // 两个插件互不依赖，需要与unirouter中UniFlutterContainerDelegator的定义保持一致
+    public static final String ACTION_CONTAINER_DESTROYED = "com.cn21.app.navigation.action.CONTAINER_DESTROYED";
+    public static final String EXTRA_INSTANCE_KEY = "instanceKey";
 
     private PluginRegistry.Registrar mRegister;
     private int sClientId = 2000;
-    private Map<Long, OkHttpClient> mHttpClients = new HashMap<>();
+    private Map<Long, HttpClientEntry> mHttpClients = new HashMap<>();
+    // 所有client共享的核心client，各client通过newBuilder()派生以共享调度器及连接池
+    private OkHttpClient mCoreClient = null;
+    // 按连接池参数缓存的连接池，参数相同的client共享同一个连接池
+    private Map<String, ConnectionPool> mConnectionPools = new HashMap<>();
+    // 连接池的引用计数，没有client使用时关闭其空闲连接
+    private Map<String, Integer> mConnectionPoolRefs = new HashMap<>();
+    // 定期关闭长时间未使用的client
+    private final Runnable mIdleSweep = this::sweepIdleClients;
+    private boolean mIdleSweepScheduled = false;
     // 保存正在执行的请求
-    private Map<Long, okhttp3.Call> mHttpCalls = new HashMap<>();
+    private final CallRegistry mHttpCalls = new CallRegistry();
+    // 合并正在执行的相同请求
+    private final RequestCoalescer mCoalescer = new RequestCoalescer();
+    // 所有client共享的DNS缓存
+    private final CachingDns mDns = new CachingDns();
+    // 按优先级调度请求
+    private final PriorityScheduler mScheduler = new PriorityScheduler();
+    // 后台请求的带宽限制
+    private final BandwidthLimiter mBandwidthLimiter = new BandwidthLimiter(mScheduler);
+    // 正在执行的分段下载，key参考CallRegistry#key
+    private final Map<Long, SegmentedDownload> mDownloads = new ConcurrentHashMap<>();
+    // 请求及下载的分组，页面销毁时按分组取消
+    private final RequestGroups mGroups = new RequestGroups();
+    // 离线请求队列，进程内共享，插件注册时获取以便应用重启后继续重放未完成的请求
+    private OfflineQueue mOfflineQueue = null;
+    // 本插件设置的离线队列完成事件接收者
+    private OfflineQueue.Listener mOfflineListener = null;
+    // 按目录共享的磁盘缓存，同一目录只能有一个Cache实例
+    private final Map<String, Cache> mDiskCaches = new HashMap<>();
     private Handler mMainHandler = null;
+    // 发送body数据块使用的缓冲池
+    private final ChunkBufferPool mBufferPool = new ChunkBufferPool(4 * 1024 * 1024);
 
     public RestfulClientPlugin(PluginRegistry.Registrar registrar) {
         this.mRegister = registrar;
         mMainHandler = new Handler(Looper.getMainLooper());
+        registerContainerReceiver(registrar);
+        if (registrar.context() != null) {
+            getOfflineQueue();
+            registrar.addViewDestroyListener(view -> {
+                releaseOfflineQueue();
+                return false;
+            });
+        }
+    }
+
+    /**
+     * 页面容器销毁时取消以其instanceKey为分组的请求
+     * 使用LocalBroadcastManager接收，其它应用无法发送该广播，FlutterNativeView销毁时注销
+     */
+    private void registerContainerReceiver(PluginRegistry.Registrar registrar) {
+        if (registrar.context() == null) {
+            return;
+        }
+        LocalBroadcastManager broadcastManager = LocalBroadcastManager.getInstance(registrar.context());
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String instanceKey = intent.getStringExtra(EXTRA_INSTANCE_KEY);
+                if (instanceKey != null && !instanceKey.isEmpty()) {
+                    int count = cancelGroup(instanceKey);
+                    if (count > 0) {
+                        Log.i(TAG, "container destroyed, cancel " + count + " requests of " + instanceKey);
+                    }
+                }
+            }
+        };
+        broadcastManager.registerReceiver(receiver, new IntentFilter(ACTION_CONTAINER_DESTROYED));
+        registrar.addViewDestroyListener(view -> {
+            broadcastManager.unregisterReceiver(receiver);
+            return false;
+        });
     }
 
     public static void registerWith(PluginRegistry.Registrar registrar) {
@@ -56,16 +170,43 @@ public class RestfulClientPlugin implements MethodChannel.MethodCallHandler {
             if (methodCall.arguments instanceof Map) {
                 Map<String, Object> map = (Map<String, Object>) methodCall.arguments;
                 String message = (String) map.get("message");
-                int connectTimeout = (Integer) map.get("http.connTimeout");
-                int readTimeout = (Integer) map.get("http.readTimeout");
-                int writeTimeout = (Integer) map.get("http.writeTimeout");
-                OkHttpClient client = new OkHttpClient.Builder()
+                int connectTimeout = getIntArg(map, "http.connTimeout", 10000);
+                int readTimeout = getIntArg(map, "http.readTimeout", 10000);
+                int writeTimeout = getIntArg(map, "http.writeTimeout", 10000);
+                int maxIdleConnections = getIntArg(map, "http.maxIdleConnections", DEFAULT_MAX_IDLE_CONNECTIONS);
+                long keepAliveDuration = getLongArg(map, "http.keepAliveDuration", DEFAULT_KEEP_ALIVE_MS);
+                OkHttpClient.Builder builder = getCoreClient().newBuilder()
+                        .connectionPool(obtainConnectionPool(maxIdleConnections, keepAliveDuration))
                         .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
                         .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
-                        .writeTimeout(writeTimeout, TimeUnit.MILLISECONDS)
-                        .build();
+                        .writeTimeout(writeTimeout, TimeUnit.MILLISECONDS);
+                String cacheDir = (String) map.get("http.cacheDir");
+                if (cacheDir != null) {
+                    applyDiskCache(builder, cacheDir, getLongArg(map, "http.cacheSize", DEFAULT_DISK_CACHE_SIZE),
+                            (String) map.get("http.cachePolicy"), getLongArg(map, "http.cacheForceSeconds", 0));
+                }
+                OkHttpClient client = builder.build();
+                HttpClientEntry entry = new HttpClientEntry(client, poolKey(maxIdleConnections, keepAliveDuration));
+                entry.idleTimeoutMs = getLongArg(map, "http.idleTimeout", 0);
+                entry.inlineBodyLimit = getLongArg(map, "http.inlineBodyLimit", DEFAULT_INLINE_BODY_LIMIT);
+                entry.responseStallTimeoutMs = getLongArg(map, "http.responseStallTimeout", 0);
+                entry.coalesceRequests = Boolean.TRUE.equals(map.get("http.coalesceRequests"));
+                entry.retryPolicy = RetryPolicy.from(map, null);
+                entry.compressRequest = RequestCompressor.Config.parseEncoding(map.get("http.compressRequest"));
+                entry.compressMinSize = getLongArg(map, "http.compressMinSize", DEFAULT_COMPRESS_MIN_SIZE);
+                long memoryCacheSize = getLongArg(map, "http.memoryCacheSize", 0);
+                if (memoryCacheSize > 0) {
+                    entry.memoryCache = new MemoryCache(memoryCacheSize);
+                }
+                Object prefetchHosts = map.get("dns.prefetchHosts");
+                if (prefetchHosts instanceof List) {
+                    mDns.prefetch((List<String>) prefetchHosts);
+                }
                 int clientId = sClientId++;
-                mHttpClients.put(Long.valueOf(clientId), client);
+                mHttpClients.put(Long.valueOf(clientId), entry);
+                if (entry.idleTimeoutMs > 0) {
+                    scheduleIdleSweep();
+                }
                 result.success(clientId);
             } else {
                 Log.e(TAG, "参数错误！");
@@ -73,11 +214,7 @@ public class RestfulClientPlugin implements MethodChannel.MethodCallHandler {
             }
         } else if ("close".equals(methodCall.method)) {
             if (methodCall.arguments instanceof Integer) {
-                int clientId = (Integer) methodCall.arguments;
-                OkHttpClient client = mHttpClients.get(Long.valueOf(clientId));
-                if (client != null) {
-                    mHttpClients.remove(Long.valueOf(clientId));
-                }
+                closeClient((Integer) methodCall.arguments);
             }
             result.success(Boolean.TRUE);
         } else if ("execute".equals(methodCall.method)) {
@@ -89,9 +226,16 @@ public class RestfulClientPlugin implements MethodChannel.MethodCallHandler {
                 String url = (String) map.get("url");
                 Map headers = (Map) map.get("headers");
                 byte[] body = (byte[]) map.get("body");
-                OkHttpClient client = mHttpClients.get(Long.valueOf(clientId));
-                if (client != null) {
-                    executeRequest(client, clientId, requestId, method, url, headers, body, result);
+                ExecuteOptions options = ExecuteOptions.from(map);
+                HttpClientEntry entry = mHttpClients.get(Long.valueOf(clientId));
+                if (options.bodyStreaming && ("GET".equals(method) || "HEAD".equals(method))) {
+                    // GET/HEAD不发送body，Dart端分块发送的数据没有接收方
+                    result.error(TAG, "execute " + method + " can not have a streaming body", null);
+                } else if (entry != null) {
+                    entry.lastUsedTime = SystemClock.elapsedRealtime();
+                    // 请求参数中的重试策略覆盖client的设置
+                    options.retryPolicy = RetryPolicy.from(map, entry.retryPolicy);
+                    executeRequest(entry, clientId, requestId, method, url, headers, body, options, result);
                 } else {
                     result.error(TAG, "execute can not find client", null);
                 }
@@ -99,57 +243,649 @@ public class RestfulClientPlugin implements MethodChannel.MethodCallHandler {
                 result.error(TAG, "execute invalid argument", null);
             }
 
+        } else if ("download".equals(methodCall.method)) {
+            if (methodCall.arguments instanceof Map) {
+                Map<String, Object> map = (Map<String, Object>) methodCall.arguments;
+                int clientId = (Integer) map.get("clientId");
+                int requestId = (Integer) map.get("requestId");
+                String url = (String) map.get("url");
+                Map headers = (Map) map.get("headers");
+                String savePath = (String) map.get("savePath");
+                int segments = getIntArg(map, "segments", SegmentedDownload.DEFAULT_SEGMENTS);
+                HttpClientEntry entry = mHttpClients.get(Long.valueOf(clientId));
+                if (entry != null && url != null && savePath != null) {
+                    entry.lastUsedTime = SystemClock.elapsedRealtime();
+                    startDownload(entry, clientId, requestId, url, headers, savePath, segments,
+                            (String) map.get("priority"), (String) map.get("group"), result);
+                } else {
+                    result.error(TAG, "download invalid argument", null);
+                }
+            } else {
+                result.error(TAG, "download invalid argument", null);
+            }
         } else if ("cancelRequest".equals(methodCall.method)) {
             if (methodCall.arguments instanceof Map) {
                 Map<String, Object> map = (Map<String, Object>) methodCall.arguments;
                 int clientId = (Integer) map.get("clientId");
                 int requestId = (Integer) map.get("requestId");
-                okhttp3.Call call = getCallById(clientId, requestId);
-                if (call != null) {
-                    call.cancel();
-                    removeRequestCall(clientId, requestId);
+                cancelRequest(clientId, requestId);
+            }
+            result.success(Boolean.TRUE);
+        } else if ("cancelGroup".equals(methodCall.method)) {
+            int count = 0;
+            if (methodCall.arguments instanceof String) {
+                count = cancelGroup((String) methodCall.arguments);
+            }
+            result.success(count);
+        } else if ("cancelAllRequests".equals(methodCall.method)) {
+            int count = 0;
+            if (methodCall.arguments instanceof Integer) {
+                count = cancelClientRequests((Integer) methodCall.arguments);
+            }
+            result.success(count);
+        } else if ("preconnect".equals(methodCall.method)) {
+            if (methodCall.arguments instanceof Map) {
+                Map<String, Object> map = (Map<String, Object>) methodCall.arguments;
+                int clientId = (Integer) map.get("clientId");
+                List<String> urls = (List<String>) map.get("urls");
+                HttpClientEntry entry = mHttpClients.get(Long.valueOf(clientId));
+                if (entry != null && urls != null) {
+                    entry.lastUsedTime = SystemClock.elapsedRealtime();
+                    preconnect(entry, urls, result);
+                } else {
+                    result.error(TAG, "preconnect invalid argument", null);
                 }
+            } else {
+                result.error(TAG, "preconnect invalid argument", null);
+            }
+        } else if ("offlineEnqueue".equals(methodCall.method)) {
+            if (methodCall.arguments instanceof Map) {
+                Map<String, Object> map = (Map<String, Object>) methodCall.arguments;
+                // 写入磁盘后才返回id
+                getOfflineQueue().enqueue((String) map.get("key"), (String) map.get("method"),
+                        (String) map.get("url"), (Map<String, String>) map.get("headers"), (byte[]) map.get("body"),
+                        id -> mMainHandler.post(() -> result.success(id)));
+            } else {
+                result.error(TAG, "offlineEnqueue invalid argument", null);
+            }
+        } else if ("offlineListen".equals(methodCall.method)) {
+            BasicMessageChannel<Object> eventChannel = new BasicMessageChannel<>(mRegister.messenger(),
+                    "com.cn21.ecloud/HttpClient_OfflineQueue", StandardMessageCodec.INSTANCE);
+            mOfflineListener = event -> mMainHandler.post(() -> eventChannel.send(event));
+            result.success(getOfflineQueue().listen(mOfflineListener));
+        } else if ("offlineAck".equals(methodCall.method)) {
+            if (methodCall.arguments instanceof String) {
+                getOfflineQueue().ack((String) methodCall.arguments);
+            }
+            result.success(Boolean.TRUE);
+        } else if ("purgeCache".equals(methodCall.method)) {
+            if (methodCall.arguments instanceof Map) {
+                Map<String, Object> map = (Map<String, Object>) methodCall.arguments;
+                int clientId = (Integer) map.get("clientId");
+                String urlPrefix = (String) map.get("urlPrefix");
+                HttpClientEntry entry = mHttpClients.get(Long.valueOf(clientId));
+                if (entry != null && urlPrefix != null) {
+                    result.success(purgeCache(entry, urlPrefix));
+                } else {
+                    result.error(TAG, "purgeCache invalid argument", null);
+                }
+            } else {
+                result.error(TAG, "purgeCache invalid argument", null);
+            }
+        } else if ("setBandwidthLimit".equals(methodCall.method)) {
+            if (methodCall.arguments instanceof Map) {
+                Map<String, Object> map = (Map<String, Object>) methodCall.arguments;
+                mBandwidthLimiter.setLimits(getLongArg(map, "upload", 0), getLongArg(map, "download", 0));
             }
             result.success(Boolean.TRUE);
+        } else if ("stats".equals(methodCall.method)) {
+            result.success(collectStats(methodCall.arguments));
         } else {
             result.notImplemented();
         }
     }
 
-    private void executeRequest(OkHttpClient client, final int clientId,
+    /**
+     * 收集运行统计信息
+     * @param arguments 为Map且包含clientId时只返回该client的统计信息，
+     *                  包含resetHistograms且为true时读取后清零各host的延迟直方图及流量
+     */
+    private Map<String, Object> collectStats(Object arguments) {
+        Map<String, Object> stats = new HashMap<>();
+        Object clientId = (arguments instanceof Map) ? ((Map) arguments).get("clientId") : null;
+        if (clientId instanceof Integer) {
+            stats.put("inflight", mHttpCalls.inflightCount((Integer) clientId));
+            HttpClientEntry entry = mHttpClients.get(Long.valueOf((Integer) clientId));
+            stats.put("coalesceHits", (entry != null) ? entry.coalesceHits.get() : 0L);
+            if (entry != null && entry.memoryCache != null) {
+                stats.put("memoryCache", entry.memoryCache.stats());
+            }
+        } else {
+            stats.put("inflight", mHttpCalls.inflightCount());
+            long coalesceHits = 0;
+            for (HttpClientEntry entry : mHttpClients.values()) {
+                coalesceHits += entry.coalesceHits.get();
+            }
+            stats.put("coalesceHits", coalesceHits);
+            Map<Long, Integer> clientInflight = new HashMap<>();
+            for (Long id : mHttpClients.keySet()) {
+                clientInflight.put(id, mHttpCalls.inflightCount(id.intValue()));
+            }
+            stats.put("clientInflight", clientInflight);
+            List<Map<String, Object>> clients = new ArrayList<>();
+            long now = SystemClock.elapsedRealtime();
+            for (Map.Entry<Long, HttpClientEntry> client : mHttpClients.entrySet()) {
+                ConnectionPool pool = client.getValue().client.connectionPool();
+                Map<String, Object> clientStats = new HashMap<>();
+                clientStats.put("clientId", client.getKey());
+                clientStats.put("inflight", mHttpCalls.inflightCount(client.getKey().intValue()));
+                // 参数相同的client共享连接池，连接数为整个连接池的连接数
+                clientStats.put("connections", pool.connectionCount());
+                clientStats.put("idleConnections", pool.idleConnectionCount());
+                clientStats.put("idleMs", now - client.getValue().lastUsedTime);
+                if (client.getValue().memoryCache != null) {
+                    clientStats.put("memoryCache", client.getValue().memoryCache.stats());
+                }
+                Cache diskCache = client.getValue().client.cache();
+                if (diskCache != null) {
+                    Map<String, Object> diskStats = new HashMap<>();
+                    // 同一目录的client共享统计
+                    diskStats.put("requests", diskCache.requestCount());
+                    diskStats.put("hits", diskCache.hitCount());
+                    diskStats.put("network", diskCache.networkCount());
+                    clientStats.put("diskCache", diskStats);
+                }
+                clients.add(clientStats);
+            }
+            stats.put("clients", clients);
+            // 调度器由所有client共享，每个正在执行的请求占用一个线程
+            Dispatcher dispatcher = getCoreClient().dispatcher();
+            stats.put("threads", dispatcher.runningCallsCount());
+            stats.put("dispatcherQueued", dispatcher.queuedCallsCount());
+            stats.put("dnsHits", mDns.hitCount());
+            stats.put("dnsStaleHits", mDns.staleHitCount());
+            stats.put("dnsMisses", mDns.missCount());
+            stats.put("lanes", mScheduler.stats());
+            stats.put("groups", mGroups.size());
+            stats.put("histograms", HostStats.stats((arguments instanceof Map)
+                    && Boolean.TRUE.equals(((Map) arguments).get("resetHistograms"))));
+            stats.put("tls", TlsStats.stats());
+            if (mOfflineQueue != null) {
+                stats.put("offline", mOfflineQueue.stats());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 预先建立连接
+     * 对每个url实际发送一个HEAD请求(只有host时为https://host/)，完成DNS解析、TCP连接及TLS握手，
+     * 请求结束后连接保留在client的连接池中。服务器需要能够接受该HEAD请求。
+     * OkHttp没有只建立连接的公开接口，网络拦截器也必须继续请求，因此只能发送请求；
+     * 请求带有{@link Preconnect}的tag，不经过重试、缓存等处理，也不计入延迟及排队统计。
+     * 所有请求结束后返回每个url的结果: url、success、durationMs，失败时还有exceptionMsg
+     * @param urls url或host，只有host时使用https
+     */
+    private void preconnect(HttpClientEntry entry, List<String> urls, MethodChannel.Result result) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        if (urls.isEmpty()) {
+            result.success(results);
+            return;
+        }
+        for (String url : urls) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("url", url);
+            results.add(item);
+        }
+        AtomicInteger remaining = new AtomicInteger(urls.size());
+        for (Map<String, Object> item : results) {
+            String url = (String) item.get("url");
+            HttpUrl httpUrl = HttpUrl.parse(url.contains("://") ? url : "https://" + url + "/");
+            if (httpUrl == null) {
+                synchronized (results) {
+                    item.put("success", false);
+                    item.put("exceptionMsg", "invalid url");
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    mMainHandler.post(() -> result.success(results));
+                }
+                continue;
+            }
+            long startTime = System.nanoTime();
+            Request request = new Request.Builder().head().url(httpUrl)
+                    .tag(Preconnect.class, Preconnect.TAG)
+                    .build();
+            mScheduler.enqueue(entry.client.newCall(request), PriorityScheduler.NORMAL, new okhttp3.Callback() {
+                @Override
+                public void onFailure(okhttp3.Call call, IOException e) {
+                    finish(false, e.getMessage());
+                }
+
+                @Override
+                public void onResponse(okhttp3.Call call, okhttp3.Response response) {
+                    // 只要收到响应连接即已建立，不关心状态码
+                    response.close();
+                    finish(true, null);
+                }
+
+                private void finish(boolean success, String exceptionMsg) {
+                    long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                    synchronized (results) {
+                        item.put("success", success);
+                        item.put("durationMs", durationMs);
+                        if (exceptionMsg != null) {
+                            item.put("exceptionMsg", exceptionMsg);
+                        }
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        mMainHandler.post(() -> {
+                            synchronized (results) {
+                                result.success(results);
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 开始分段下载，参考{@link SegmentedDownload}
+     * 下载进度通过progress channel以{received, total}的形式发送，完成后返回savedPath、savedBytes等
+     */
+    private void startDownload(HttpClientEntry entry, int clientId, int requestId, String url,
+                               Map<String, String> headers, String savePath, int segments, String priority,
+                               String group, MethodChannel.Result result) {
+        long key = CallRegistry.key(clientId, requestId);
+        BasicMessageChannel<Object> progressChannel = createProgressChannel(clientId, requestId);
+        SegmentedDownload download = new SegmentedDownload(entry.client, mScheduler,
+                PriorityScheduler.laneOf(priority), url,
+                Headers.of(headers != null ? headers : new HashMap<String, String>()),
+                savePath, segments, new SegmentedDownload.Listener() {
+            @Override
+            public void onProgress(long received, long total) {
+                Map<String, Object> progress = new HashMap<>();
+                progress.put("received", received);
+                progress.put("total", total);
+                mMainHandler.post(() -> progressChannel.send(progress));
+            }
+
+            @Override
+            public void onComplete(Map<String, Object> res) {
+                mDownloads.remove(key);
+                mGroups.leave(key);
+                mMainHandler.post(() -> result.success(res));
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                mDownloads.remove(key);
+                mGroups.leave(key);
+                Map<String, Object> res = new HashMap<String, Object>();
+                res.put("excpetion", e.getClass().getName());
+                res.put("exceptionMsg", e.getMessage());
+                mMainHandler.post(() -> result.success(res));
+            }
+        });
+        mDownloads.put(key, download);
+        if (group != null) {
+            mGroups.join(group, key);
+        }
+        download.start();
+    }
+
+    /** 获取离线请求队列，进程内第一次获取时开始重放日志中的请求 */
+    private OfflineQueue getOfflineQueue() {
+        if (mOfflineQueue == null) {
+            mOfflineQueue = OfflineQueue.acquire(mRegister.context(), getCoreClient(), mScheduler, mMainHandler);
+        }
+        return mOfflineQueue;
+    }
+
+    /** FlutterNativeView销毁时释放离线队列，不再接收其完成事件 */
+    private void releaseOfflineQueue() {
+        if (mOfflineQueue != null) {
+            // 保留引用，销毁后迟到的调用不会再次增加引用计数
+            mOfflineQueue.release(mOfflineListener);
+            mOfflineListener = null;
+        }
+    }
+
+    /**
+     * 为client设置磁盘缓存
+     * @param dir 缓存目录，相对路径时位于应用的缓存目录中，同一目录的client共享缓存，大小以第一次设置的为准
+     * @param policy 参考{@link DiskCachePolicy}
+     */
+    private void applyDiskCache(OkHttpClient.Builder builder, String dir, long maxSize, String policy,
+                                long forceSeconds) {
+        File directory = new File(dir);
+        if (!directory.isAbsolute()) {
+            directory = new File(mRegister.context().getCacheDir(), dir);
+        }
+        String key = directory.getAbsolutePath();
+        Cache cache = mDiskCaches.get(key);
+        if (cache == null) {
+            cache = new Cache(directory, maxSize);
+            mDiskCaches.put(key, cache);
+        }
+        builder.cache(cache);
+        if (DiskCachePolicy.FORCE.equals(policy) && forceSeconds > 0) {
+            builder.addNetworkInterceptor(DiskCachePolicy.forceCache(forceSeconds));
+        } else if (DiskCachePolicy.OFFLINE_FALLBACK.equals(policy)) {
+            // 放在重试之外，所有重试都失败后才使用缓存
+            List<Interceptor> interceptors = builder.interceptors();
+            interceptors.add(interceptors.indexOf(MemoryCache.INTERCEPTOR) + 1, DiskCachePolicy.offlineFallback());
+        }
+    }
+
+    /**
+     * 删除client的磁盘缓存及内存缓存中url以urlPrefix开头的缓存
+     * @return 删除的数量
+     */
+    private int purgeCache(HttpClientEntry entry, String urlPrefix) {
+        int count = 0;
+        Cache cache = entry.client.cache();
+        if (cache != null) {
+            try {
+                Iterator<String> urls = cache.urls();
+                while (urls.hasNext()) {
+                    if (urls.next().startsWith(urlPrefix)) {
+                        urls.remove();
+                        count++;
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "purgeCache: " + e.getMessage());
+            }
+        }
+        if (entry.memoryCache != null) {
+            count += entry.memoryCache.purge(urlPrefix);
+        }
+        return count;
+    }
+
+    /** 获取共享的核心client，第一次调用时创建 */
+    private OkHttpClient getCoreClient() {
+        if (mCoreClient == null) {
+            mCoreClient = new OkHttpClient.Builder()
+                    .connectionPool(obtainConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_MS))
+                    .eventListenerFactory(CallTimings.FACTORY)
+                    .addInterceptor(MemoryCache.INTERCEPTOR)
+                    .addInterceptor(new RetryInterceptor())
+                    .addInterceptor(new RequestCompressor())
+                    .addInterceptor(mBandwidthLimiter)
+                    .addNetworkInterceptor(mDns.connectionTracker())
+                    .dns(mDns)
+                    .socketFactory(mDns.socketFactory())
+                    .dispatcher(createDispatcher())
+                    .build();
+        }
+        return mCoreClient;
+    }
+
+    /**
+     * 创建共享的调度器
+     * 排队由PriorityScheduler负责，Dispatcher的限制需要留出余量(参考PriorityScheduler.DISPATCHER_HEADROOM)，
+     * 否则请求会在Dispatcher中按先后顺序排队
+     */
+    private static Dispatcher createDispatcher() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(PriorityScheduler.MAX_CONCURRENCY * PriorityScheduler.DISPATCHER_HEADROOM);
+        dispatcher.setMaxRequestsPerHost(PriorityScheduler.MAX_PER_HOST * PriorityScheduler.DISPATCHER_HEADROOM);
+        return dispatcher;
+    }
+
+    private static String poolKey(int maxIdleConnections, long keepAliveDuration) {
+        return maxIdleConnections + "_" + keepAliveDuration;
+    }
+
+    /** 获取指定参数的连接池并增加其引用计数，相同参数的client共享同一个连接池 */
+    private ConnectionPool obtainConnectionPool(int maxIdleConnections, long keepAliveDuration) {
+        String key = poolKey(maxIdleConnections, keepAliveDuration);
+        ConnectionPool pool = mConnectionPools.get(key);
+        if (pool == null) {
+            pool = new ConnectionPool(maxIdleConnections, keepAliveDuration, TimeUnit.MILLISECONDS);
+            mConnectionPools.put(key, pool);
+        }
+        Integer refs = mConnectionPoolRefs.get(key);
+        mConnectionPoolRefs.put(key, (refs != null) ? refs + 1 : 1);
+        return pool;
+    }
+
+    /** 减少连接池的引用计数，没有client使用时关闭其所有空闲连接并移除 */
+    private void releaseConnectionPool(String key) {
+        Integer refs = mConnectionPoolRefs.get(key);
+        if (refs == null) {
+            return;
+        }
+        if (refs > 1) {
+            mConnectionPoolRefs.put(key, refs - 1);
+            return;
+        }
+        mConnectionPoolRefs.remove(key);
+        ConnectionPool pool = mConnectionPools.remove(key);
+        if (pool != null) {
+            pool.evictAll();
+        }
+    }
+
+    /**
+     * 关闭client: 取消其所有请求并释放连接池
+     * 调度器及其线程由所有client共享，不随client关闭
+     */
+    private void closeClient(int clientId) {
+        HttpClientEntry entry = mHttpClients.remove(Long.valueOf(clientId));
+        if (entry == null) {
+            return;
+        }
+        cancelClientRequests(clientId);
+        releaseConnectionPool(entry.poolKey);
+    }
+
+    /**
+     * 取消某个client的所有请求及下载
+     * @return 取消的请求数
+     */
+    private int cancelClientRequests(int clientId) {
+        int count = mHttpCalls.cancelAll(clientId);
+        for (Long key : mDownloads.keySet()) {
+            SegmentedDownload download = ((key >> 32) == clientId) ? mDownloads.remove(key) : null;
+            if (download != null) {
+                download.cancel();
+                count++;
+            }
+        }
+        mScheduler.onCanceled();
+        return count;
+    }
+
+    /**
+     * 取消单个请求或下载
+     * @return 是否有请求被取消
+     */
+    private boolean cancelRequest(int clientId, int requestId) {
+        long key = CallRegistry.key(clientId, requestId);
+        mGroups.leave(key);
+        SegmentedDownload download = mDownloads.remove(key);
+        if (download != null) {
+            download.cancel();
+            return true;
+        }
+        List<ResponseTarget> detached = new ArrayList<>(1);
+        okhttp3.Call call = mCoalescer.leave(clientId, requestId, detached);
+        if (!detached.isEmpty()) {
+            // 合并的请求还有其它请求在等待，只结束当前请求
+            postFailure(detached, new IOException("Canceled"), null, null);
+            return true;
+        }
+        if (call == null) {
+            call = mHttpCalls.remove(clientId, requestId);
+        }
+        if (call != null) {
+            call.cancel();
+            mScheduler.onCanceled();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 取消某个分组的所有请求及下载
+     * @return 取消的请求数
+     */
+    private int cancelGroup(String group) {
+        int count = 0;
+        for (Long key : mGroups.take(group)) {
+            if (cancelRequest((int) (key >> 32), key.intValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** 请求结束，从登记表及分组中移除 */
+    private void removeCall(int clientId, int requestId) {
+        mHttpCalls.remove(clientId, requestId);
+        mGroups.leave(CallRegistry.key(clientId, requestId));
+    }
+
+    private boolean hasDownloads(int clientId) {
+        for (Long key : mDownloads.keySet()) {
+            if ((key >> 32) == clientId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleIdleSweep() {
+        if (!mIdleSweepScheduled) {
+            mIdleSweepScheduled = true;
+            mMainHandler.postDelayed(mIdleSweep, IDLE_SWEEP_INTERVAL_MS);
+        }
+    }
+
+    /** 关闭设置了空闲超时且超过该时间未使用的client，有请求正在执行的client不算空闲 */
+    private void sweepIdleClients() {
+        mIdleSweepScheduled = false;
+        long now = SystemClock.elapsedRealtime();
+        boolean hasIdleTimeout = false;
+        for (Long id : new ArrayList<>(mHttpClients.keySet())) {
+            HttpClientEntry entry = mHttpClients.get(id);
+            if (entry.idleTimeoutMs <= 0) {
+                continue;
+            }
+            if (mHttpCalls.inflightCount(id.intValue()) > 0 || hasDownloads(id.intValue())) {
+                entry.lastUsedTime = now;
+            } else if (now - entry.lastUsedTime >= entry.idleTimeoutMs) {
+                Log.i(TAG, "close idle client " + id);
+                closeClient(id.intValue());
+                continue;
+            }
+            hasIdleTimeout = true;
+        }
+        if (hasIdleTimeout) {
+            scheduleIdleSweep();
+        }
+    }
+
+    private static int getIntArg(Map<String, Object> map, String key, int defaultValue) {
+        Object value = map.get(key);
+        return (value instanceof Number) ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private static long getLongArg(Map<String, Object> map, String key, long defaultValue) {
+        Object value = map.get(key);
+        return (value instanceof Number) ? ((Number) value).longValue() : defaultValue;
+    }
+
+    private void executeRequest(HttpClientEntry entry, final int clientId,
                                 final int requestId, String method, String url, Map<String, String> headers, byte[] body,
-                                final MethodChannel.Result result) {
+                                final ExecuteOptions options, final MethodChannel.Result result) {
+        final ResponseTarget target = new ResponseTarget(clientId, requestId, result);
+        if (options.group != null) {
+            mGroups.join(options.group, CallRegistry.key(clientId, requestId));
+        }
+        // 保存到文件的请求不能共享响应
+        final String coalesceKey = (entry.coalesceRequests && options.saveToPath == null)
+                ? RequestCoalescer.keyOf(clientId, method, url, headers,
+                        (options.jsonPointer != null) ? options.responseType + options.jsonPointer : options.responseType)
+                : null;
+        if (coalesceKey != null && mCoalescer.join(coalesceKey, target)) {
+            // 已有相同的请求正在执行，等待其响应
+            entry.coalesceHits.incrementAndGet();
+            return;
+        }
         Headers header = Headers.of(headers != null ? headers : new HashMap<String, String>());
         RequestBody requestBody = null;
+        StreamingRequestBody streamingBody = null;
+        BasicMessageChannel<ByteBuffer> requestChannel = null;
         if (!"GET".equals(method)) {
-            requestBody = (body != null)
-                    ? RequestBody.create(null, body)
-                    : RequestBody.create(null, "");
+            if (options.bodyFilePath != null) {
+                // 直接从文件流式读取
+                requestBody = RequestBody.create(null, new File(options.bodyFilePath));
+            } else if (options.bodyStreaming) {
+                // 由Dart端通过channel分块发送
+                streamingBody = new StreamingRequestBody(options.bodyLength, REQUEST_BODY_WINDOW,
+                        entry.client.writeTimeoutMillis(), mMainHandler);
+                requestChannel = createRequestChannel(clientId, requestId);
+                requestChannel.setMessageHandler(streamingBody);
+                requestBody = streamingBody;
+            } else {
+                requestBody = (body != null)
+                        ? RequestBody.create(null, body)
+                        : RequestBody.create(null, "");
+            }
         }
+        final StreamingRequestBody finalStreamingBody = streamingBody;
+        final BasicMessageChannel<ByteBuffer> finalRequestChannel = requestChannel;
 
-        Request request = new Request.Builder()
+        final CallTimings timings = new CallTimings();
+        final RetryInterceptor.State retryState = new RetryInterceptor.State(options.retryPolicy);
+        final int lane = PriorityScheduler.laneOf(options.priority);
+        Request.Builder requestBuilder = BandwidthLimiter.tag(new Request.Builder(), lane)
                 .method(method, requestBody)
                 .url(url)
                 .headers(header)
-                .build();
-        okhttp3.Call call = client.newCall(request);
+                .tag(CallTimings.class, timings)
+                .tag(RetryInterceptor.State.class, retryState);
+        if (entry.memoryCache != null) {
+            requestBuilder.tag(MemoryCache.class, entry.memoryCache);
+        }
+        // 请求参数中的压缩设置覆盖client的设置
+        String compressRequest = options.hasCompressRequest
+                ? RequestCompressor.Config.parseEncoding(options.compressRequest)
+                : entry.compressRequest;
+        if (requestBody != null && compressRequest != null) {
+            requestBuilder.tag(RequestCompressor.Config.class,
+                    new RequestCompressor.Config(compressRequest, entry.compressMinSize));
+        }
+        Request request = requestBuilder.build();
+        final long stallTimeoutMs = entry.responseStallTimeoutMs;
+        final long inlineBodyLimit = entry.inlineBodyLimit;
+        okhttp3.Call call = entry.client.newCall(request);
+        if (streamingBody != null) {
+            streamingBody.attach(call);
+        }
         // 保存请求对象
-        addRequestCall(clientId, requestId, call);
+        mHttpCalls.add(clientId, requestId, call);
+        if (coalesceKey != null) {
+            mCoalescer.begin(coalesceKey, target, call);
+        }
 
-        call.enqueue(new okhttp3.Callback() {
+        mScheduler.enqueue(call, lane, new okhttp3.Callback() {
             @Override
             public void onFailure(okhttp3.Call call, IOException e) {
-                removeRequestCall(clientId, requestId);
+                removeCall(clientId, requestId);
+                closeRequestChannel();
                 Log.i(TAG, "e: " + e.getMessage());
-                Map<String, Object> res = new HashMap<String, Object>();
-                res.put("excpetion", e.getClass().getName());
-                res.put("exceptionMsg", e.getMessage());
-                mMainHandler.post(()->{result.success(res);});
+                postFailure(finishTargets(), e, timings, retryState);
             }
 
             @Override
             public void onResponse(okhttp3.Call call, okhttp3.Response response) throws IOException {
-                removeRequestCall(clientId, requestId);
+                closeRequestChannel();
+                List<ResponseTarget> targets = finishTargets();
 //                Log.d(TAG, "onResponse: " + response.code() + ", message: " + response.message());
                 Headers headers = response.headers();
                 Map<String, String> headerMap = new HashMap<>();
@@ -161,95 +897,461 @@ public class RestfulClientPlugin implements MethodChannel.MethodCallHandler {
                 }
                 Map<String, Object> res = new HashMap<String, Object>();
                 res.put("statusCode", response.code());
+                res.put("cacheStatus", DiskCachePolicy.statusOf(response));
                 res.put("statusMsg", response.message());
                 res.put("headers", headerMap);
 
-                if (response.body() != null) {
-                    // 直接返回body
-//                    res.put("body", response.body().bytes());
+                ResponseBody responseBody = response.body();
+                try {
+                    if (responseBody != null && options.saveToPath != null && response.isSuccessful()) {
+                        // 直接保存到文件，body不经过channel
+                        long savedBytes = saveBodyToFile(responseBody, options.saveToPath, options.fsyncPolicy);
+                        res.put("savedPath", options.saveToPath);
+                        res.put("savedBytes", savedBytes);
+                    } else if (responseBody != null && RESPONSE_TYPE_JSON_STREAM.equals(options.responseType)
+                            && response.isSuccessful() && JsonBodyDecoder.accepts(responseBody)) {
+                        // 分批发送数组元素，body不经过Dart端解析
+                        res.put("jsonItemsStreaming", Boolean.TRUE);
+                        putCallInfo(res, timings, retryState);
+                        for (ResponseTarget target : targets) {
+                            postStreamingResult(target, res, call, options.responseWindow > 0, stallTimeoutMs);
+                        }
+                        sendJsonItemsByBasicChannel(targets, responseBody, options.jsonPointer, options.jsonBatchBytes);
+                        removeCall(clientId, requestId);
+                        return;
+                    } else if (responseBody != null && RESPONSE_TYPE_JSON.equals(options.responseType)
+                            && JsonBodyDecoder.accepts(responseBody)) {
+                        // 在工作线程中解析JSON，直接返回解析结果
+                        res.put("decodedBody", JsonBodyDecoder.decode(responseBody));
+                    } else if (responseBody != null) {
+                        byte[] inlineBody = readInlineBody(responseBody, inlineBodyLimit);
+                        if (inlineBody != null) {
+                            // 直接返回body
+                            res.put("body", inlineBody);
+                        } else {
+                            // 通过流的形式返回body
+                            res.put("bodyBinaryLength", responseBody.contentLength());
+                            putCallInfo(res, timings, retryState);
+                            for (ResponseTarget target : targets) {
+                                postStreamingResult(target, res, call, options.responseWindow > 0, stallTimeoutMs);
+                            }
+                            sendBodyByBasicChannel(targets, responseBody);
+                            removeCall(clientId, requestId);
+                            return;
+                        }
+                    }
+                } catch (IOException e) {
+                    responseBody.close();
+                    removeCall(clientId, requestId);
+                    Log.i(TAG, "e: " + e.getMessage());
+                    postFailure(targets, e, timings, retryState);
+                    return;
+                }
+                removeCall(clientId, requestId);
+                putCallInfo(res, timings, retryState);
+                for (ResponseTarget target : targets) {
+                    mMainHandler.post(()->{target.result.success(res);});
+                }
+            }
 
-                    // 通过流的形式返回body
-                    res.put("bodyBinaryLength", response.body().contentLength());
-                    mMainHandler.post(()->{result.success(res);});
-                    sendBodyByBasicChannel(clientId, requestId, response.body());
-                } else {
-                    // 无body
-                    mMainHandler.post(()->{result.success(res);});
+            /** 获取等待该响应的所有请求，合并的请求只有第一次调用时返回 */
+            private List<ResponseTarget> finishTargets() {
+                if (coalesceKey == null) {
+                    return Collections.singletonList(target);
+                }
+                List<ResponseTarget> targets = mCoalescer.finish(coalesceKey);
+                for (ResponseTarget t : targets) {
+                    mGroups.leave(CallRegistry.key(t.clientId, t.requestId));
+                }
+                return targets;
+            }
+
+            private void closeRequestChannel() {
+                if (finalStreamingBody != null) {
+                    finalStreamingBody.close();
+                    mMainHandler.post(() -> finalRequestChannel.setMessageHandler(null));
                 }
             }
         });
     }
 
-    // 使用BasicMessageChannel发送二进制数据
-    private void sendBodyByBasicChannel(int clientId, int requestId, ResponseBody responseBody) {
-        String name = "com.cn21.ecloud/HttpClient_" + clientId + "_Response_" + requestId;
-        BasicMessageChannel<ByteBuffer> messageChannel = new BasicMessageChannel<>(mRegister.messenger(), name,
-                BinaryCodec.INSTANCE);
-//        Log.d(TAG, "sendBodyByBasicChannel: channelName: " + name);
+    private void postFailure(List<ResponseTarget> targets, IOException e, CallTimings timings,
+                             RetryInterceptor.State retryState) {
+        Map<String, Object> res = new HashMap<String, Object>();
+        res.put("excpetion", e.getClass().getName());
+        res.put("exceptionMsg", e.getMessage());
+        if (timings != null) {
+            putCallInfo(res, timings, retryState);
+        }
+        for (ResponseTarget target : targets) {
+            mMainHandler.post(()->{target.result.success(res);});
+        }
+    }
+
+    /** 在结果中加入请求过程的信息: 各阶段耗时及尝试次数 */
+    private static void putCallInfo(Map<String, Object> res, CallTimings timings, RetryInterceptor.State retryState) {
+        res.put("timings", timings.toMap());
+        res.put("attempts", Math.max(retryState.attempts, 1));
+    }
+
+    /**
+     * 返回以流的形式传输body的结果
+     * @param flowControlled 是否启用流控，启用时初始额度为0，由Dart端开始监听后授予；
+     *                       不启用时也要等Dart端开始监听后才发送，否则数据会在注册接收前到达而丢失
+     */
+    private void postStreamingResult(ResponseTarget target, Map<String, Object> res, okhttp3.Call call,
+                                     boolean flowControlled, long stallTimeoutMs) {
+        BasicMessageChannel<ByteBuffer> bodyChannel = createBodyChannel(target.clientId, target.requestId);
+        ResponseFlowControl flowControl = new ResponseFlowControl(call, 0, stallTimeoutMs, !flowControlled);
+        target.bodyChannel = bodyChannel;
+        target.flowControl = flowControl;
+        mMainHandler.post(() -> {
+            // 先于结果注册额度接收，Dart端在收到结果后才开始监听并授予额度
+            bodyChannel.setMessageHandler((message, reply) -> {
+                flowControl.onCreditMessage(message);
+                reply.reply(null);
+            });
+            target.result.success(res);
+        });
+    }
 
-        InputStream stream = responseBody.byteStream();
-        byte[] byteBuffer = new byte[1024];
+    // 使用BasicMessageChannel发送二进制数据，消息格式参考ResponseTarget
+    // 数据块从缓冲池中获取，大小根据内容长度及读取速度自适应调整，所有接收方回复后归还缓冲池
+    // 如果启用了流控，只在所有接收方授予的额度内读取和发送数据，某个接收方流控超时后向其发送出错消息并不再向其发送
+    // 读取出错(包括取消)时向所有接收方发送出错消息，不会作为正常结束
+    private void sendBodyByBasicChannel(List<ResponseTarget> targets, ResponseBody responseBody) {
+        BufferedSource source = responseBody.source();
+        AdaptiveChunkSizer chunkSizer = new AdaptiveChunkSizer(responseBody.contentLength());
+        IOException error = null;
         try {
-            int len;
-            while ((len = stream.read(byteBuffer)) > 0) {
+            boolean exhausted = false;
+            while (!exhausted) {
+                long credit = awaitTargetsCredit(targets, chunkSizer.nextChunkSize());
+                if (credit <= 0) {
+                    break;
+                }
+                // 第一个字节为消息类型，至少读取1字节数据
+                int chunkSize = (int) Math.max(credit, 2);
+                ByteBuffer buffer = mBufferPool.acquire(chunkSize);
+                buffer.limit(chunkSize);
+                buffer.put(ResponseTarget.FRAME_DATA);
+                long startTime = System.nanoTime();
+                exhausted = readChunk(source, buffer);
+                int len = buffer.position();
+                if (len <= 1) {
+                    mBufferPool.release(buffer);
+                    break;
+                }
+                chunkSizer.onChunkRead(len - 1, System.nanoTime() - startTime);
 //                Log.i(TAG, "sendBodyByBasicChannel: byteBuffer: " + len);
-                ByteBuffer buffer = ByteBuffer.allocateDirect(len);
-                buffer.put(byteBuffer, 0, len);
-                mMainHandler.post(()-> messageChannel.send(buffer));
+                postToTargets(targets, buffer, len);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            error = e;
+        } finally {
+            responseBody.close();
+            for (ResponseTarget target : targets) {
+                if (!target.dropped) {
+                    finishBodyChannel(target, error);
+                }
             }
+        }
+    }
+
+    /**
+     * 边下载边解析JSON数组，分批发送数组元素，格式参考{@link JsonArrayStreamer}
+     * 流控及多个接收方的处理与{@link #sendBodyByBasicChannel}相同，额度按每批的字节数消耗
+     */
+    private void sendJsonItemsByBasicChannel(List<ResponseTarget> targets, ResponseBody responseBody,
+                                             String pointer, int batchBytes) {
+        IOException error = null;
+        try {
+            JsonArrayStreamer.stream(responseBody, pointer, batchBytes, (data, length) -> {
+                if (awaitTargetsCredit(targets, length + 1) <= 0) {
+                    throw new IOException("Canceled");
+                }
+                postToTargets(targets, copyToFrame(data, length), length + 1);
+            });
         } catch (IOException e) {
             e.printStackTrace();
+            error = e;
+        } finally {
+            responseBody.close();
+            for (ResponseTarget target : targets) {
+                if (!target.dropped) {
+                    finishBodyChannel(target, error);
+                }
+            }
+        }
+    }
+
+    /** 复制到缓冲池中的缓冲区作为数据消息，超过最大数据块时单独分配 */
+    private ByteBuffer copyToFrame(byte[] data, int length) {
+        ByteBuffer buffer = (length + 1 <= ChunkBufferPool.MAX_CHUNK_SIZE)
+                ? mBufferPool.acquire(length + 1)
+                : ByteBuffer.allocateDirect(length + 1);
+        buffer.put(ResponseTarget.FRAME_DATA);
+        buffer.put(data, 0, length);
+        return buffer;
+    }
+
+    /**
+     * 等待所有启用流控的接收方都有额度，流控超时的接收方不再向其发送
+     * @return 不超过wanted的可发送字节数，没有可发送的接收方时返回0
+     */
+    private long awaitTargetsCredit(List<ResponseTarget> targets, long wanted) {
+        int activeCount = 0;
+        for (ResponseTarget target : targets) {
+            if (target.dropped) {
+                continue;
+            }
+            if (target.flowControl != null) {
+                try {
+                    wanted = Math.min(wanted, target.flowControl.awaitCredit());
+                } catch (IOException e) {
+                    // 接收方读取过慢，不能作为正常结束
+                    e.printStackTrace();
+                    target.dropped = true;
+                    finishBodyChannel(target, e);
+                    continue;
+                }
+            }
+            activeCount++;
+        }
+        return (activeCount > 0) ? wanted : 0;
+    }
+
+    /** 向所有接收方发送数据块，所有接收方回复后归还缓冲池 */
+    private void postToTargets(List<ResponseTarget> targets, ByteBuffer buffer, int len) {
+        int activeCount = 0;
+        for (ResponseTarget target : targets) {
+            if (!target.dropped) {
+                activeCount++;
+            }
+        }
+        AtomicInteger pendingReplies = new AtomicInteger(activeCount);
+        for (ResponseTarget target : targets) {
+            if (target.dropped) {
+                continue;
+            }
+            if (target.flowControl != null) {
+                target.flowControl.consume(len);
+            }
+            // 注意不能flip，BinaryMessenger以position作为消息长度
+            BasicMessageChannel<ByteBuffer> messageChannel = target.bodyChannel;
+            mMainHandler.post(() -> messageChannel.send(buffer, reply -> {
+                if (pendingReplies.decrementAndGet() == 0) {
+                    mBufferPool.release(buffer);
+                }
+            }));
+        }
+    }
+
+    /**
+     * 结束body的发送
+     * @param error 不为null时发送出错消息，否则发送null表示正常结束
+     */
+    private void finishBodyChannel(ResponseTarget target, IOException error) {
+        BasicMessageChannel<ByteBuffer> messageChannel = target.bodyChannel;
+        ByteBuffer message = (error != null) ? ResponseTarget.errorFrame(error) : null;
+        mMainHandler.post(()-> messageChannel.send(message));
+//        Log.i(TAG, "sendBodyByBasicChannel: null");
+        if (target.flowControl != null) {
+            target.flowControl.close();
+            mMainHandler.post(() -> messageChannel.setMessageHandler(null));
+        }
+    }
+
+    /**
+     * 将body保存到文件
+     * 先写入临时文件，完成后再重命名为目标文件，避免留下不完整的文件
+     * @param fsyncPolicy fsync策略，参考{@link ExecuteOptions#fsyncPolicy}
+     * @return 保存的字节数
+     */
+    private static long saveBodyToFile(ResponseBody responseBody, String path, String fsyncPolicy)
+            throws IOException {
+        File target = new File(path);
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            responseBody.close();
+            throw new IOException("can not create directory " + parent);
+        }
+        File tempFile = new File(path + ".download");
+        boolean syncPeriodic = FSYNC_PERIODIC.equals(fsyncPolicy);
+        boolean syncOnComplete = syncPeriodic || FSYNC_ON_COMPLETE.equals(fsyncPolicy);
+        long savedBytes = 0;
+        boolean completed = false;
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            BufferedSource source = responseBody.source();
+            BufferedSink sink = Okio.buffer(Okio.sink(out));
+            long unsyncedBytes = 0;
+            long len;
+            while ((len = source.read(sink.buffer(), SAVE_SEGMENT_SIZE)) != -1) {
+                sink.emitCompleteSegments();
+                savedBytes += len;
+                unsyncedBytes += len;
+                if (syncPeriodic && unsyncedBytes >= FSYNC_INTERVAL_BYTES) {
+                    sink.flush();
+                    out.getFD().sync();
+                    unsyncedBytes = 0;
+                }
+            }
+            sink.flush();
+            if (syncOnComplete) {
+                out.getFD().sync();
+            }
+            completed = true;
         } finally {
+            responseBody.close();
             try {
-                stream.close();
+                out.close();
             } catch (IOException e) {}
-            // 发送一个null表示结束
-            mMainHandler.post(()-> messageChannel.send(null));
-//            Log.i(TAG, "sendBodyByBasicChannel: null");
-        }
-    }
-
-    private void addRequestCall(int clientId, int requestId, okhttp3.Call call) {
-        long key = Integer.valueOf(clientId).hashCode() + Integer.valueOf(requestId).hashCode();
-        mHttpCalls.put(key, call);
-    }
-
-    private void removeRequestCall(int clientId, int requestId) {
-        long key = Integer.valueOf(clientId).hashCode() + Integer.valueOf(requestId).hashCode();
-        mHttpCalls.remove(key);
-    }
-
-    private okhttp3.Call getCallById(int clientId, int requestId) {
-        long key = Integer.valueOf(clientId).hashCode() + Integer.valueOf(requestId).hashCode();
-        return mHttpCalls.get(key);
-    }
-
-    /** 请求的body接收器 */
-//    private class RequestBodyReceiver {
-//        public void startReceive(int clientId, int requestId, ReceiveBodyCallback callback) {
-//            String name = "com.cn21.ecloud/HttpClient_" + clientId + "_Request_" + requestId;
-//            okio.Buffer buffer = new okio.Buffer();
-//            BasicMessageChannel<ByteBuffer> receiveChannel = new BasicMessageChannel<>(mRegister.messenger(), name,
-//                    BinaryCodec.INSTANCE);
-//            receiveChannel.setMessageHandler((ByteBuffer data, BasicMessageChannel.Reply<ByteBuffer> var2)->{
-//                if (data != null) {
-//                    Log.i(TAG, "receive " + data.array().length + " bytes");
-//                    try {
-//                        buffer.write(data);
-//                    } catch (IOException e) {
-//                        e.printStackTrace();
-//                    }
-//                } else {
-//                    Log.i(TAG, "receive completed");
-//                    callback.onReceiveBody(buffer.readByteArray());
-//                    receiveChannel.setMessageHandler(null);
-//                }
-//            });
-//        }
-//    }
-//
-//    private interface ReceiveBodyCallback {
-//        void onReceiveBody(byte[] bytes);
-//    }
+            if (!completed) {
+                tempFile.delete();
+            }
+        }
+        if ((target.exists() && !target.delete()) || !tempFile.renameTo(target)) {
+            tempFile.delete();
+            throw new IOException("can not rename to " + path);
+        }
+        return savedBytes;
+    }
+
+    private BasicMessageChannel<ByteBuffer> createRequestChannel(int clientId, int requestId) {
+        String name = "com.cn21.ecloud/HttpClient_" + clientId + "_Request_" + requestId;
+        return new BasicMessageChannel<>(mRegister.messenger(), name, BinaryCodec.INSTANCE);
+    }
+
+    private BasicMessageChannel<Object> createProgressChannel(int clientId, int requestId) {
+        String name = "com.cn21.ecloud/HttpClient_" + clientId + "_Progress_" + requestId;
+        return new BasicMessageChannel<>(mRegister.messenger(), name, StandardMessageCodec.INSTANCE);
+    }
+
+    private BasicMessageChannel<ByteBuffer> createBodyChannel(int clientId, int requestId) {
+        String name = "com.cn21.ecloud/HttpClient_" + clientId + "_Response_" + requestId;
+//        Log.d(TAG, "createBodyChannel: channelName: " + name);
+        return new BasicMessageChannel<>(mRegister.messenger(), name, BinaryCodec.INSTANCE);
+    }
+
+    /**
+     * 读取可以直接在execute结果中返回的小body
+     * 内容长度已知时按长度判断，未知时最多预读limit字节进行判断
+     * @return body内容，body超过limit时返回null，此时已预读的数据仍保留在source中
+     */
+    private static byte[] readInlineBody(ResponseBody responseBody, long limit) throws IOException {
+        if (limit <= 0) {
+            return null;
+        }
+        long contentLength = responseBody.contentLength();
+        if (contentLength > limit) {
+            return null;
+        }
+        if (contentLength >= 0) {
+            return responseBody.bytes();
+        }
+        BufferedSource source = responseBody.source();
+        if (source.request(limit + 1)) {
+            return null;
+        }
+        byte[] bytes = source.readByteArray();
+        responseBody.close();
+        return bytes;
+    }
+
+    /**
+     * 从source读取数据直到填满buffer或数据结束
+     * @return 数据是否已读取完毕
+     */
+    private static boolean readChunk(BufferedSource source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** client及其相关配置 */
+    private static class HttpClientEntry {
+        final OkHttpClient client;
+        // 连接池的key，参考poolKey
+        final String poolKey;
+        // 空闲超过该时间(毫秒)后自动关闭，不大于0时不自动关闭
+        long idleTimeoutMs;
+        // 最后一次使用的时间(SystemClock.elapsedRealtime)
+        long lastUsedTime = SystemClock.elapsedRealtime();
+        // 不超过该长度的body直接在execute结果中返回
+        long inlineBodyLimit = DEFAULT_INLINE_BODY_LIMIT;
+        // Dart端不授予流控额度时最长的等待时间(毫秒)，不大于0时一直等待直到请求取消
+        long responseStallTimeoutMs;
+        // 是否合并正在执行的相同GET/HEAD请求
+        boolean coalesceRequests;
+        // 合并请求的命中次数
+        final AtomicLong coalesceHits = new AtomicLong();
+        // 默认的重试策略，为null时不重试
+        RetryPolicy retryPolicy;
+        // 请求body的压缩方式(gzip或deflate)，为null时不压缩
+        String compressRequest;
+        // 小于该长度的请求body不压缩
+        long compressMinSize = DEFAULT_COMPRESS_MIN_SIZE;
+        // 内存响应缓存，为null时不缓存
+        MemoryCache memoryCache;
+
+        HttpClientEntry(OkHttpClient client, String poolKey) {
+            this.client = client;
+            this.poolKey = poolKey;
+        }
+    }
+
+    /** execute的请求选项 */
+    private static class ExecuteOptions {
+        // 响应body的流控窗口，大于0时启用流控
+        long responseWindow;
+        // 不为null时将成功响应的body直接保存到该文件
+        String saveToPath;
+        // 保存文件时的fsync策略: none(默认), onComplete(完成时), periodic(每写入一定数据及完成时)
+        String fsyncPolicy;
+        // 为true时请求body由Dart端通过channel分块发送
+        boolean bodyStreaming;
+        // 流式请求body的长度，未知时为-1
+        long bodyLength;
+        // 不为null时从该文件读取请求body
+        String bodyFilePath;
+        // 响应类型，为json时在原生端解析body，为jsonStream时边下载边解析数组并分批发送元素
+        String responseType;
+        // 重试策略，为null时不重试
+        RetryPolicy retryPolicy;
+        // 优先级: interactive, normal(默认), background
+        String priority;
+        // 请求body的压缩方式: true或gzip, deflate, false(不压缩)，未指定时使用client的设置
+        boolean hasCompressRequest;
+        Object compressRequest;
+        // 请求所属的分组，通常为页面容器的instanceKey，可通过cancelGroup一起取消
+        String group;
+        // 响应类型为jsonStream时，要解析的数组的JSON Pointer，为null时为顶层数组
+        String jsonPointer;
+        // 响应类型为jsonStream时，每批数据的字节数上限
+        int jsonBatchBytes;
+
+        static ExecuteOptions from(Map<String, Object> map) {
+            ExecuteOptions options = new ExecuteOptions();
+            options.responseWindow = getLongArg(map, "responseWindow", 0);
+            options.saveToPath = (String) map.get("saveToPath");
+            options.fsyncPolicy = (String) map.get("fsyncPolicy");
+            options.bodyStreaming = Boolean.TRUE.equals(map.get("bodyStreaming"));
+            options.bodyLength = getLongArg(map, "bodyLength", -1);
+            options.bodyFilePath = (String) map.get("bodyFilePath");
+            options.responseType = (String) map.get("responseType");
+            options.priority = (String) map.get("priority");
+            options.hasCompressRequest = map.containsKey("compressRequest");
+            options.compressRequest = map.get("compressRequest");
+            options.group = (String) map.get("group");
+            options.jsonPointer = (String) map.get("jsonPointer");
+            options.jsonBatchBytes = getIntArg(map, "jsonBatchBytes", JsonArrayStreamer.DEFAULT_BATCH_BYTES);
+            return options;
+        }
+    }
 
 }
@@ -0,0 +1,136 @@
+package com.cn21.network.restfulapi;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.http.UnrepeatableRequestBody;
+
+/**
+ * 类说明:按请求的重试策略在原生端重试
+ * 重试策略通过请求的tag({@link State})传递，Dart端只收到最后一次的结果及尝试次数。
+ * 退避等待在OkHttp的工作线程中进行，期间会检查请求是否已取消。
+ */
+class RetryInterceptor implements Interceptor {
+    private static final String RETRY_AFTER = "Retry-After";
+    // 退避等待时检查取消状态的间隔
+    private static final long CANCEL_CHECK_INTERVAL_MS = 100;
+
+    /** 请求的重试状态 */
+    static class State {
+        // 为null时不重试
+        final RetryPolicy policy;
+        // 已尝试的次数
+        volatile int attempts;
+
+        State(RetryPolicy policy) {
+            this.policy = policy;
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        State state = request.tag(State.class);
+        if (state == null) {
+            return chain.proceed(request);
+        }
+        RetryPolicy policy = state.policy;
+        // 由Dart端流式发送的body不能重放；只读缓存的请求没有缓存时返回504，重试没有意义
+        boolean retryable = policy != null && policy.allowsMethod(request.method())
+                && !(request.body() instanceof UnrepeatableRequestBody)
+                && !request.cacheControl().onlyIfCached();
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            state.attempts = attempt;
+            boolean lastAttempt = !retryable || attempt >= policy.maxAttempts;
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (lastAttempt || chain.call().isCanceled() || !policy.isRetryableException(e)) {
+                    throw e;
+                }
+                sleep(chain, policy.backoffDelay(attempt));
+                continue;
+            }
+            if (lastAttempt || !policy.isRetryableStatus(response.code())) {
+                return response;
+            }
+            long delay = policy.backoffDelay(attempt);
+            long retryAfter = parseRetryAfter(response.header(RETRY_AFTER));
+            if (retryAfter > policy.maxDelayMs) {
+                // 服务器要求等待的时间太长，直接返回
+                return response;
+            }
+            if (retryAfter >= 0) {
+                delay = retryAfter;
+            }
+            response.close();
+            sleep(chain, delay);
+        }
+    }
+
+    private static void sleep(Chain chain, long delayMs) throws IOException {
+        long deadline = System.currentTimeMillis() + delayMs;
+        long remaining = delayMs;
+        while (remaining > 0) {
+            if (chain.call().isCanceled()) {
+                throw new IOException("Canceled");
+            }
+            try {
+                Thread.sleep(Math.min(remaining, CANCEL_CHECK_INTERVAL_MS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Canceled");
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        if (chain.call().isCanceled()) {
+            throw new IOException("Canceled");
+        }
+    }
+
+    /**
+     * 解析Retry-After，支持秒数及HTTP日期两种格式
+     * @return 需要等待的毫秒数，无法解析时返回-1
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(Long.parseLong(value), 0) * 1000;
+        } catch (NumberFormatException e) {
+            // 不是秒数，按HTTP日期解析
+        }
+        long date = parseHttpDate(value);
+        return (date >= 0) ? Math.max(date - System.currentTimeMillis(), 0) : -1;
+    }
+
+    /**
+     * 解析HTTP日期(RFC 1123格式)
+     * @return 毫秒时间，无法解析时返回-1
+     */
+    static long parseHttpDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value.trim());
+            return date.getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
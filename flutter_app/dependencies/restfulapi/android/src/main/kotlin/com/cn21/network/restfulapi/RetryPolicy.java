@@ -0,0 +1,134 @@
+package com.cn21.network.restfulapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 类说明:请求重试策略
+ * 可以在create时为client设置，也可以在execute时按请求覆盖其中的部分参数，参数名相同。
+ */
+class RetryPolicy {
+    static final String KEY_MAX_ATTEMPTS = "retry.maxAttempts";
+    static final String KEY_BASE_DELAY = "retry.baseDelay";
+    static final String KEY_MAX_DELAY = "retry.maxDelay";
+    static final String KEY_STATUS_CODES = "retry.statusCodes";
+    static final String KEY_EXCEPTIONS = "retry.exceptions";
+    static final String KEY_NON_IDEMPOTENT = "retry.nonIdempotent";
+
+    private static final Set<Integer> DEFAULT_STATUS_CODES =
+            new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+    private static final List<String> DEFAULT_EXCEPTIONS = Arrays.asList(
+            "java.net.SocketTimeoutException",
+            "java.net.ConnectException",
+            "java.net.NoRouteToHostException",
+            "java.net.UnknownHostException",
+            "javax.net.ssl.SSLHandshakeException");
+    private static final Set<String> IDEMPOTENT_METHODS =
+            new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE"));
+
+    // 最大尝试次数(包括第一次)
+    final int maxAttempts;
+    // 退避的基础时间(毫秒)，第n次重试前最多等待baseDelay * 2^(n-1)
+    final long baseDelayMs;
+    // 退避及Retry-After的最大等待时间(毫秒)，Retry-After超过该值时不再重试
+    final long maxDelayMs;
+    // 需要重试的响应状态码
+    final Set<Integer> statusCodes;
+    // 需要重试的异常类名(包括子类)
+    final List<String> exceptions;
+    // 是否重试非幂等的请求(如POST)
+    final boolean nonIdempotent;
+
+    private RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs, Set<Integer> statusCodes,
+                        List<String> exceptions, boolean nonIdempotent) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.statusCodes = statusCodes;
+        this.exceptions = exceptions;
+        this.nonIdempotent = nonIdempotent;
+    }
+
+    /**
+     * 从参数中解析重试策略
+     * @param defaults 参数中未指定的项使用该策略的值，可以为null
+     * @return 不需要重试时返回null
+     */
+    static RetryPolicy from(Map<String, Object> map, RetryPolicy defaults) {
+        int maxAttempts = (defaults != null) ? defaults.maxAttempts : 1;
+        long baseDelayMs = (defaults != null) ? defaults.baseDelayMs : 200;
+        long maxDelayMs = (defaults != null) ? defaults.maxDelayMs : 10000;
+        Set<Integer> statusCodes = (defaults != null) ? defaults.statusCodes : DEFAULT_STATUS_CODES;
+        List<String> exceptions = (defaults != null) ? defaults.exceptions : DEFAULT_EXCEPTIONS;
+        boolean nonIdempotent = (defaults != null) && defaults.nonIdempotent;
+
+        Object value = map.get(KEY_MAX_ATTEMPTS);
+        if (value instanceof Number) {
+            maxAttempts = ((Number) value).intValue();
+        }
+        value = map.get(KEY_BASE_DELAY);
+        if (value instanceof Number) {
+            baseDelayMs = ((Number) value).longValue();
+        }
+        value = map.get(KEY_MAX_DELAY);
+        if (value instanceof Number) {
+            maxDelayMs = ((Number) value).longValue();
+        }
+        value = map.get(KEY_STATUS_CODES);
+        if (value instanceof List) {
+            statusCodes = new HashSet<>();
+            for (Object code : (List) value) {
+                if (code instanceof Number) {
+                    statusCodes.add(((Number) code).intValue());
+                }
+            }
+        }
+        value = map.get(KEY_EXCEPTIONS);
+        if (value instanceof List) {
+            exceptions = new ArrayList<>();
+            for (Object name : (List) value) {
+                if (name instanceof String) {
+                    exceptions.add((String) name);
+                }
+            }
+        }
+        value = map.get(KEY_NON_IDEMPOTENT);
+        if (value instanceof Boolean) {
+            nonIdempotent = (Boolean) value;
+        }
+        if (maxAttempts <= 1) {
+            return null;
+        }
+        return new RetryPolicy(maxAttempts, baseDelayMs, maxDelayMs, statusCodes, exceptions, nonIdempotent);
+    }
+
+    boolean allowsMethod(String method) {
+        return nonIdempotent || IDEMPOTENT_METHODS.contains(method);
+    }
+
+    boolean isRetryableStatus(int code) {
+        return statusCodes.contains(code);
+    }
+
+    boolean isRetryableException(Throwable e) {
+        for (Class<?> cls = e.getClass(); cls != null; cls = cls.getSuperclass()) {
+            if (exceptions.contains(cls.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 第retry次重试前的退避时间，在[0, min(maxDelay, baseDelay * 2^(retry-1))]中随机选择
+     */
+    long backoffDelay(int retry) {
+        long ceiling = baseDelayMs << Math.min(retry - 1, 20);
+        ceiling = Math.min(Math.max(ceiling, 0), maxDelayMs);
+        return (long) (Math.random() * ceiling);
+    }
+}
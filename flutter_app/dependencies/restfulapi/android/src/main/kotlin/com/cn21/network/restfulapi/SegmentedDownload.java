@@ -0,0 +1,540 @@
+package com.cn21.network.restfulapi;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * 类说明:分段并行下载，支持断点续传
+ * 先请求第一个字节探测服务器是否支持Range，支持时预先分配文件长度，将文件分成多段并行下载，
+ * 各段按位置直接写入文件，已写入并同步到磁盘的区间记录在日志中({@link DownloadJournal})，
+ * 网络中断或进程重启后再次下载同一url到同一路径时只下载未完成的区间。
+ * 服务器不支持Range、长度未知(Content-Range的总长度为*)时退化为单连接下载，
+ * 分段响应的Content-Range与请求的区间不符时结束下载。
+ * 下载过程中的数据写入临时文件(path + ".download")，完成后重命名为目标文件。
+ */
+class SegmentedDownload {
+    static final int DEFAULT_SEGMENTS = 4;
+    private static final int MAX_SEGMENTS = 8;
+    // 每段的最小长度，文件较小时减少分段数
+    private static final long MIN_SEGMENT_SIZE = 512 * 1024L;
+    // 每写入该长度同步一次文件并记录日志
+    private static final long JOURNAL_INTERVAL_BYTES = 1024 * 1024L;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** 下载结果及进度的回调，在OkHttp的工作线程中调用 */
+    interface Listener {
+        void onProgress(long received, long total);
+
+        void onComplete(Map<String, Object> res);
+
+        void onFailure(IOException e);
+    }
+
+    private final OkHttpClient mClient;
+    private final PriorityScheduler mScheduler;
+    private final int mLane;
+    private final String mUrl;
+    private final Headers mHeaders;
+    private final File mTarget;
+    private final File mTempFile;
+    private final File mJournalFile;
+    private final int mSegments;
+    private final Listener mListener;
+
+    private final List<Call> mCalls = new ArrayList<>();
+    private final ArrayDeque<long[]> mPending = new ArrayDeque<>();
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mLastProgressTime = new AtomicLong();
+    private volatile boolean mFinished = false;
+    // 因失败或取消而结束
+    private boolean mFailed = false;
+    // 正在写入文件的数量，失败后最后一个写入结束时才关闭文件及日志
+    private int mWriters = 0;
+    private int mActive = 0;
+    private long mTotal = -1;
+    private long mResumedBytes = 0;
+    private DownloadJournal mJournal;
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+
+    SegmentedDownload(OkHttpClient client, PriorityScheduler scheduler, int lane, String url, Headers headers,
+                      String path, int segments, Listener listener) {
+        mClient = client;
+        mScheduler = scheduler;
+        mLane = lane;
+        mUrl = url;
+        mHeaders = headers;
+        mTarget = new File(path);
+        mTempFile = new File(path + ".download");
+        mJournalFile = new File(path + ".journal");
+        mSegments = Math.max(1, Math.min(segments, MAX_SEGMENTS));
+        mListener = listener;
+    }
+
+    void start() {
+        DownloadJournal journal = DownloadJournal.load(mJournalFile);
+        if (journal != null && journal.url.equals(mUrl)
+                && mTempFile.exists() && mTempFile.length() == journal.length) {
+            // 继续上次未完成的下载，文件是否有变化由各段请求的If-Range校验
+            mJournal = journal;
+            mTotal = journal.length;
+            mResumedBytes = journal.completedBytes();
+            try {
+                startSegments();
+            } catch (IOException e) {
+                fail(e);
+            }
+            return;
+        }
+        if (journal != null) {
+            journal.delete();
+        }
+        probe();
+    }
+
+    void cancel() {
+        fail(new IOException("Canceled"));
+    }
+
+    /** 请求第一个字节，探测是否支持Range及文件长度 */
+    private void probe() {
+        Request request = BandwidthLimiter.tag(new Request.Builder(), mLane)
+                .url(mUrl)
+                .headers(mHeaders)
+                .header("Range", "bytes=0-0")
+                .build();
+        enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                fail(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    long[] range = (response.code() == 206)
+                            ? parseContentRange(response.header("Content-Range")) : null;
+                    if (range != null && range[0] == 0 && range[2] > 0) {
+                        long total = range[2];
+                        response.close();
+                        String validator = response.header("ETag");
+                        if (validator == null || validator.startsWith("W/")) {
+                            // 弱ETag不能用于If-Range
+                            validator = response.header("Last-Modified");
+                        }
+                        prepareFile(total, validator);
+                        startSegments();
+                    } else if (response.code() == 206) {
+                        // 长度未知或区间不符，不使用Range重新请求
+                        response.close();
+                        downloadWithoutRange();
+                    } else if (response.isSuccessful()) {
+                        // 不支持Range，直接使用该响应单连接下载
+                        downloadWhole(response.body());
+                    } else {
+                        response.close();
+                        throw new IOException("unexpected response " + response.code());
+                    }
+                } catch (IOException e) {
+                    response.close();
+                    fail(e);
+                }
+            }
+        });
+    }
+
+    /** 不带Range请求整个文件，单连接下载 */
+    private void downloadWithoutRange() {
+        Request request = BandwidthLimiter.tag(new Request.Builder(), mLane)
+                .url(mUrl)
+                .headers(mHeaders)
+                .build();
+        enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                fail(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (!response.isSuccessful() || response.code() == 206) {
+                        response.close();
+                        throw new IOException("unexpected response " + response.code());
+                    }
+                    downloadWhole(response.body());
+                } catch (IOException e) {
+                    response.close();
+                    fail(e);
+                }
+            }
+        });
+    }
+
+    private void prepareFile(long total, String validator) throws IOException {
+        File parent = mTarget.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("can not create directory " + parent);
+        }
+        RandomAccessFile file = new RandomAccessFile(mTempFile, "rw");
+        try {
+            file.setLength(total);
+        } finally {
+            file.close();
+        }
+        mTotal = total;
+        mJournal = DownloadJournal.create(mJournalFile, mUrl, total, validator);
+    }
+
+    private void startSegments() throws IOException {
+        mReceived.set(mJournal.completedBytes());
+        List<long[]> missing = mJournal.missingRanges();
+        if (missing.isEmpty()) {
+            complete();
+            return;
+        }
+        long missingBytes = 0;
+        for (long[] range : missing) {
+            missingBytes += range[1] - range[0];
+        }
+        long segmentSize = Math.max(MIN_SEGMENT_SIZE, (missingBytes + mSegments - 1) / mSegments);
+        synchronized (this) {
+            mFile = new RandomAccessFile(mTempFile, "rw");
+            mChannel = mFile.getChannel();
+            for (long[] range : missing) {
+                for (long start = range[0]; start < range[1]; start += segmentSize) {
+                    mPending.add(new long[]{start, Math.min(start + segmentSize, range[1])});
+                }
+            }
+        }
+        launchSegments();
+    }
+
+    private void launchSegments() {
+        List<long[]> ranges = new ArrayList<>();
+        synchronized (this) {
+            while (!mFinished && mActive < mSegments && !mPending.isEmpty()) {
+                mActive++;
+                ranges.add(mPending.poll());
+            }
+        }
+        for (long[] range : ranges) {
+            downloadSegment(range[0], range[1]);
+        }
+    }
+
+    private void downloadSegment(long start, long end) {
+        Request.Builder builder = BandwidthLimiter.tag(new Request.Builder(), mLane)
+                .url(mUrl)
+                .headers(mHeaders)
+                .header("Range", "bytes=" + start + "-" + (end - 1));
+        if (mJournal.validator != null) {
+            builder.header("If-Range", mJournal.validator);
+        }
+        enqueue(builder.build(), new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                fail(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (response.code() != 206) {
+                        response.close();
+                        if (response.code() == 200) {
+                            // 服务器上的文件已变化，下次重新下载
+                            mJournal.delete();
+                        }
+                        throw new IOException("unexpected response " + response.code());
+                    }
+                    String contentRange = response.header("Content-Range");
+                    long[] range = parseContentRange(contentRange);
+                    if (range == null || range[0] != start || range[1] != end - 1
+                            || (range[2] >= 0 && range[2] != mTotal)) {
+                        // 服务器或缓存没有按请求的区间返回，写入会破坏文件
+                        response.close();
+                        throw new IOException("unexpected Content-Range " + contentRange
+                                + " for bytes " + start + "-" + (end - 1));
+                    }
+                    writeRange(response.body(), start, end);
+                } catch (IOException e) {
+                    response.close();
+                    fail(e);
+                    return;
+                }
+                boolean done;
+                synchronized (SegmentedDownload.this) {
+                    mActive--;
+                    done = (mActive == 0 && mPending.isEmpty());
+                }
+                if (done) {
+                    try {
+                        complete();
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                } else {
+                    launchSegments();
+                }
+            }
+        });
+    }
+
+    /** 将body写入文件的[start, end)区间，定期同步文件并记录日志 */
+    private void writeRange(ResponseBody body, long start, long end) throws IOException {
+        FileChannel channel;
+        try {
+            channel = acquireChannel();
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+        BufferedSource source = body.source();
+        byte[] bytes = new byte[READ_BUFFER_SIZE];
+        long position = start;
+        long committed = start;
+        try {
+            while (position < end) {
+                if (mFinished) {
+                    throw new IOException("Canceled");
+                }
+                int len = source.read(bytes, 0, (int) Math.min(bytes.length, end - position));
+                if (len < 0) {
+                    throw new EOFException("unexpected end of range");
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, len);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                onReceived(len);
+                if (position - committed >= JOURNAL_INTERVAL_BYTES) {
+                    channel.force(false);
+                    mJournal.append(committed, position);
+                    committed = position;
+                }
+            }
+        } finally {
+            body.close();
+            if (position > committed) {
+                // 出错或已取消时也记录已写入的部分，文件在所有写入结束后才关闭
+                try {
+                    channel.force(false);
+                    mJournal.append(committed, position);
+                } catch (IOException e) {}
+            }
+            releaseChannel();
+        }
+    }
+
+    /** 服务器不支持Range时直接下载整个文件 */
+    private void downloadWhole(ResponseBody body) throws IOException {
+        File parent = mTarget.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("can not create directory " + parent);
+        }
+        mTotal = body.contentLength();
+        synchronized (this) {
+            mFile = new RandomAccessFile(mTempFile, "rw");
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+        }
+        FileChannel channel;
+        try {
+            channel = acquireChannel();
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+        BufferedSource source = body.source();
+        byte[] bytes = new byte[READ_BUFFER_SIZE];
+        long position = 0;
+        try {
+            int len;
+            while ((len = source.read(bytes)) != -1) {
+                if (mFinished) {
+                    throw new IOException("Canceled");
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, len);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                onReceived(len);
+            }
+        } finally {
+            body.close();
+            releaseChannel();
+        }
+        mTotal = position;
+        complete();
+    }
+
+    private void onReceived(long len) {
+        long received = mReceived.addAndGet(len);
+        long now = System.nanoTime();
+        long last = mLastProgressTime.get();
+        if (now - last >= PROGRESS_INTERVAL_NANOS && mLastProgressTime.compareAndSet(last, now)) {
+            mListener.onProgress(received, mTotal);
+        }
+    }
+
+    private void complete() throws IOException {
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+        }
+        try {
+            if (mChannel != null) {
+                mChannel.force(true);
+            }
+        } finally {
+            closeFile();
+        }
+        if ((mTarget.exists() && !mTarget.delete()) || !mTempFile.renameTo(mTarget)) {
+            throw new IOException("can not rename to " + mTarget.getPath());
+        }
+        if (mJournal != null) {
+            mJournal.delete();
+        }
+        mListener.onProgress(mReceived.get(), mTotal);
+        Map<String, Object> res = new HashMap<>();
+        res.put("savedPath", mTarget.getPath());
+        res.put("savedBytes", mTotal);
+        res.put("resumedBytes", mResumedBytes);
+        res.put("segmented", mJournal != null);
+        mListener.onComplete(res);
+    }
+
+    /** 结束下载并保留临时文件及日志，以便之后继续 */
+    private void fail(IOException e) {
+        List<Call> calls;
+        boolean release;
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            mFailed = true;
+            calls = new ArrayList<>(mCalls);
+            release = (mWriters == 0);
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+        mScheduler.onCanceled();
+        if (release) {
+            releaseFiles();
+        }
+        mListener.onFailure(e);
+    }
+
+    /** 失败后关闭文件及日志，没有日志时删除无法继续的临时文件 */
+    private void releaseFiles() {
+        closeFile();
+        if (mJournal != null) {
+            mJournal.close();
+        } else {
+            mTempFile.delete();
+        }
+    }
+
+    /** 开始写入文件，下载已结束时抛出异常，写入结束后需要调用{@link #releaseChannel()} */
+    private synchronized FileChannel acquireChannel() throws IOException {
+        if (mFinished || mChannel == null) {
+            throw new IOException("Canceled");
+        }
+        mWriters++;
+        return mChannel;
+    }
+
+    private void releaseChannel() {
+        boolean release;
+        synchronized (this) {
+            mWriters--;
+            release = mFailed && mWriters == 0;
+        }
+        if (release) {
+            releaseFiles();
+        }
+    }
+
+    private synchronized void closeFile() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException e) {}
+            mFile = null;
+            mChannel = null;
+        }
+    }
+
+    private void enqueue(Request request, Callback callback) {
+        Call call = mClient.newCall(request);
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mCalls.add(call);
+        }
+        mScheduler.enqueue(call, mLane, callback);
+    }
+
+    /**
+     * 解析Content-Range中的总长度，如"bytes 0-0/12345"
+     * @return 无法解析或长度未知时返回-1
+     */
+    static long parseTotalLength(String contentRange) {
+        long[] range = parseContentRange(contentRange);
+        return (range != null) ? range[2] : -1;
+    }
+
+    /**
+     * 解析Content-Range，如"bytes 0-1023/12345"
+     * @return {start, end(包含), total}，总长度为*时total为-1；格式错误时返回null
+     */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return null;
+        }
+        int dash = contentRange.indexOf('-');
+        int slash = contentRange.indexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        try {
+            long start = Long.parseLong(contentRange.substring(6, dash).trim());
+            long end = Long.parseLong(contentRange.substring(dash + 1, slash).trim());
+            String totalText = contentRange.substring(slash + 1).trim();
+            long total = "*".equals(totalText) ? -1 : Long.parseLong(totalText);
+            if (start < 0 || end < start || (total >= 0 && end >= total)) {
+                return null;
+            }
+            return new long[]{start, end, total};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
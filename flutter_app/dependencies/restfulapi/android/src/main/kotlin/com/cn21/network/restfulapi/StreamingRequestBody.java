@@ -0,0 +1,144 @@
+package com.cn21.network.restfulapi;
+
+import android.os.Handler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+import io.flutter.plugin.common.BasicMessageChannel;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.internal.http.UnrepeatableRequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+/**
+ * 类说明:从Dart端分块接收的请求body
+ * Dart端通过"HttpClient_{clientId}_Request_{requestId}"的channel逐块发送数据，null表示结束。
+ * 已缓冲未写出的数据不超过窗口时立即回复，超过时等到数据写入网络后再回复，
+ * Dart端收到回复后才发送下一块，从而限制原生端缓冲的数据量。
+ * 数据只能写出一次，实现UnrepeatableRequestBody使OkHttp在重试、重定向时不重放该body。
+ */
+class StreamingRequestBody extends RequestBody
+        implements BasicMessageChannel.MessageHandler<ByteBuffer>, UnrepeatableRequestBody {
+    // 等待数据时检查请求是否已取消的间隔
+    private static final long CHECK_INTERVAL_MS = 200;
+
+    private final long mContentLength;
+    private final long mWindow;
+    private final long mStallTimeoutMs;
+    private final Handler mMainHandler;
+    private final Buffer mBuffer = new Buffer();
+    private BasicMessageChannel.Reply<ByteBuffer> mPendingReply;
+    private Call mCall;
+    private boolean mFinished = false;
+    private boolean mClosed = false;
+    private boolean mConsumed = false;
+
+    /**
+     * @param contentLength body长度，未知时为-1
+     * @param window 原生端最多缓冲的字节数
+     * @param stallTimeoutMs 等待数据的最长时间，0表示一直等待直到请求取消
+     */
+    StreamingRequestBody(long contentLength, long window, long stallTimeoutMs, Handler mainHandler) {
+        mContentLength = contentLength;
+        mWindow = window;
+        mStallTimeoutMs = stallTimeoutMs;
+        mMainHandler = mainHandler;
+    }
+
+    synchronized void attach(Call call) {
+        mCall = call;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return null;
+    }
+
+    @Override
+    public long contentLength() {
+        return mContentLength;
+    }
+
+    /** 在主线程中接收Dart端发送的数据块 */
+    @Override
+    public void onMessage(ByteBuffer message, BasicMessageChannel.Reply<ByteBuffer> reply) {
+        synchronized (this) {
+            if (message == null) {
+                mFinished = true;
+            } else if (!mClosed) {
+                try {
+                    // message只在回调期间有效，需要复制出来
+                    mBuffer.write(message);
+                } catch (IOException e) {
+                    mClosed = true;
+                }
+                if (mBuffer.size() >= mWindow && !mClosed) {
+                    mPendingReply = reply;
+                    reply = null;
+                }
+            }
+            notifyAll();
+        }
+        if (reply != null) {
+            reply.reply(null);
+        }
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        synchronized (this) {
+            if (mConsumed) {
+                throw new IOException("streaming request body can only be written once");
+            }
+            mConsumed = true;
+        }
+        Buffer chunk = new Buffer();
+        while (true) {
+            synchronized (this) {
+                long waited = 0;
+                while (mBuffer.size() == 0 && !mFinished) {
+                    if (mClosed || (mCall != null && mCall.isCanceled())) {
+                        throw new IOException("Canceled");
+                    }
+                    if (mStallTimeoutMs > 0 && waited >= mStallTimeoutMs) {
+                        throw new SocketTimeoutException("request body stalled");
+                    }
+                    try {
+                        wait(CHECK_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    waited += CHECK_INTERVAL_MS;
+                }
+                if (mBuffer.size() == 0) {
+                    break;
+                }
+                // 在锁外写网络，避免阻塞主线程接收数据
+                chunk.write(mBuffer, mBuffer.size());
+                releasePendingReply();
+            }
+            sink.write(chunk, chunk.size());
+        }
+    }
+
+    /** 结束接收，释放缓冲的数据及等待中的回复 */
+    synchronized void close() {
+        mClosed = true;
+        mBuffer.clear();
+        releasePendingReply();
+        notifyAll();
+    }
+
+    private void releasePendingReply() {
+        final BasicMessageChannel.Reply<ByteBuffer> reply = mPendingReply;
+        if (reply != null) {
+            mPendingReply = null;
+            mMainHandler.post(() -> reply.reply(null));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.cn21.network.restfulapi;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 类说明:TLS握手统计
+ * 统计所有请求的TLS握手次数及其中恢复会话的次数。
+ * 所有client由核心client派生，共享同一个SSLSocketFactory，会话缓存在进程内共享。
+ */
+class TlsStats {
+    private static final AtomicLong sHandshakes = new AtomicLong();
+    private static final AtomicLong sResumed = new AtomicLong();
+
+    private TlsStats() {
+    }
+
+    /** 记录一次TLS握手，由{@link CallTimings}调用 */
+    static void recordHandshake(boolean resumed) {
+        sHandshakes.incrementAndGet();
+        if (resumed) {
+            sResumed.incrementAndGet();
+        }
+    }
+
+    /** TLS握手次数及其中恢复会话的次数 */
+    static Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        long handshakes = sHandshakes.get();
+        long resumed = sResumed.get();
+        stats.put("handshakes", handshakes);
+        stats.put("resumed", resumed);
+        stats.put("resumptionRate", (handshakes > 0) ? (double) resumed / handshakes : 0.0);
+        return stats;
+    }
+}
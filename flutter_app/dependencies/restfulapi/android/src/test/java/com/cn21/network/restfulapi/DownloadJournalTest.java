@@ -0,0 +1,105 @@
+package com.cn21.network.restfulapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class DownloadJournalTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("download", ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private void appendRaw(String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(text.getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void reloadsCommittedRanges() throws IOException {
+        DownloadJournal journal = DownloadJournal.create(mFile, "http://a/b", 100, "\"etag\"");
+        journal.append(0, 10);
+        journal.append(50, 60);
+        journal.append(10, 20);
+        journal.close();
+
+        DownloadJournal loaded = DownloadJournal.load(mFile);
+        assertNotNull(loaded);
+        assertEquals("http://a/b", loaded.url);
+        assertEquals(100, loaded.length);
+        assertEquals("\"etag\"", loaded.validator);
+        assertEquals(30, loaded.completedBytes());
+        List<long[]> missing = loaded.missingRanges();
+        assertEquals(2, missing.size());
+        assertArrayEquals(new long[]{20, 50}, missing.get(0));
+        assertArrayEquals(new long[]{60, 100}, missing.get(1));
+    }
+
+    @Test
+    public void ignoresTornLastRecord() throws IOException {
+        DownloadJournal journal = DownloadJournal.create(mFile, "http://a/b", 100, null);
+        journal.append(0, 10);
+        journal.close();
+        // 进程在写入"10\t40\n"时退出，只写入了一部分
+        appendRaw("10\t4");
+
+        DownloadJournal loaded = DownloadJournal.load(mFile);
+        assertNotNull(loaded);
+        assertNull(loaded.validator);
+        assertEquals(10, loaded.completedBytes());
+    }
+
+    @Test
+    public void stopsAtInvalidRecord() throws IOException {
+        DownloadJournal.create(mFile, "http://a/b", 100, null);
+        appendRaw("0\t10\n20\t500\n30\t40\n");
+
+        DownloadJournal loaded = DownloadJournal.load(mFile);
+        assertNotNull(loaded);
+        assertEquals(10, loaded.completedBytes());
+    }
+
+    @Test
+    public void rejectsTornHeader() throws IOException {
+        appendRaw("http://a/b\t10");
+        assertNull(DownloadJournal.load(mFile));
+        assertNull(DownloadJournal.load(new File(mFile.getPath() + ".missing")));
+    }
+
+    @Test
+    public void appendAfterCloseFails() throws IOException {
+        DownloadJournal journal = DownloadJournal.create(mFile, "http://a/b", 100, null);
+        journal.close();
+        try {
+            journal.append(0, 10);
+            fail();
+        } catch (IOException e) {
+            // 关闭后不能再追加
+        }
+        assertEquals(0, DownloadJournal.load(mFile).completedBytes());
+    }
+}
@@ -0,0 +1,45 @@
+package com.cn21.network.restfulapi;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JsonArrayStreamerTest {
+
+    @Test
+    public void emptyPointerIsRoot() throws IOException {
+        assertEquals(Collections.emptyList(), JsonArrayStreamer.parsePointer(null));
+        assertEquals(Collections.emptyList(), JsonArrayStreamer.parsePointer(""));
+    }
+
+    @Test
+    public void splitsTokens() throws IOException {
+        assertEquals(Arrays.asList("data", "items"), JsonArrayStreamer.parsePointer("/data/items"));
+        assertEquals(Arrays.asList("list", "0"), JsonArrayStreamer.parsePointer("/list/0"));
+        // "/"指向名称为空字符串的成员
+        assertEquals(Collections.singletonList(""), JsonArrayStreamer.parsePointer("/"));
+        assertEquals(Arrays.asList("a", "", "b"), JsonArrayStreamer.parsePointer("/a//b"));
+    }
+
+    @Test
+    public void unescapesTokens() throws IOException {
+        assertEquals(Arrays.asList("a/b", "m~n"), JsonArrayStreamer.parsePointer("/a~1b/m~0n"));
+        // 先替换~1再替换~0，"~01"表示"~1"而不是"/"
+        assertEquals(Collections.singletonList("~1"), JsonArrayStreamer.parsePointer("/~01"));
+    }
+
+    @Test
+    public void rejectsRelativePointer() {
+        try {
+            JsonArrayStreamer.parsePointer("data/items");
+            fail();
+        } catch (IOException e) {
+            // 期望的异常
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.cn21.network.restfulapi;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.indexOf(value));
+            assertEquals(value, LatencyHistogram.upperBoundOf(value));
+        }
+        assertEquals(8, LatencyHistogram.indexOf(8));
+        assertEquals(8, LatencyHistogram.upperBoundOf(8));
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        assertEquals(0, LatencyHistogram.indexOf(0));
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            long upper = LatencyHistogram.upperBoundOf(i);
+            assertEquals(i, LatencyHistogram.indexOf(upper));
+            assertEquals(i + 1, LatencyHistogram.indexOf(upper + 1));
+        }
+    }
+
+    @Test
+    public void relativeErrorIsBounded() {
+        for (long value = 1; value < (1L << 32); value = value * 3 + 1) {
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(value));
+            assertTrue(upper >= value);
+            assertTrue((upper - value) * 8 <= value);
+        }
+    }
+
+    @Test
+    public void largeValuesGoToLastBucket() {
+        int last = LatencyHistogram.BUCKET_COUNT - 1;
+        assertEquals(last, LatencyHistogram.indexOf(LatencyHistogram.upperBoundOf(last)));
+        assertEquals(last, LatencyHistogram.indexOf(1L << 40));
+        assertEquals(last, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void snapshotReportsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertNull(histogram.snapshot());
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        Map<String, Object> snapshot = histogram.snapshot();
+        assertEquals(100L, ((Number) snapshot.get("count")).longValue());
+        assertEquals(100000L, ((Number) snapshot.get("max")).longValue());
+        long p50 = ((Number) snapshot.get("p50")).longValue();
+        long p99 = ((Number) snapshot.get("p99")).longValue();
+        assertTrue(p50 >= 50000 && p50 <= 50000 * 9 / 8);
+        assertTrue(p99 >= 99000 && p99 <= 100000);
+    }
+}
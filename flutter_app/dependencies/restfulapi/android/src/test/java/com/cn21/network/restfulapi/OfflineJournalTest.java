@@ -0,0 +1,104 @@
+package com.cn21.network.restfulapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class OfflineJournalTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("offline", ".journal");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    private static List<byte[]> records(String... values) {
+        List<byte[]> records = new ArrayList<>();
+        for (String value : values) {
+            records.add(value.getBytes());
+        }
+        return records;
+    }
+
+    private void assertRecords(List<byte[]> actual, String... expected) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i].getBytes(), actual.get(i));
+        }
+    }
+
+    @Test
+    public void reloadsAppendedRecords() throws IOException {
+        OfflineJournal journal = new OfflineJournal(mFile);
+        journal.append(records("a", "bc"));
+        journal.append(records("def"));
+        journal.close();
+
+        assertRecords(new OfflineJournal(mFile).load(), "a", "bc", "def");
+    }
+
+    @Test
+    public void truncatesTornLastRecord() throws IOException {
+        OfflineJournal journal = new OfflineJournal(mFile);
+        journal.append(records("a", "bc"));
+        journal.close();
+        long validLength = mFile.length();
+        journal.append(records("def"));
+        journal.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(mFile.length() - 1);
+        } finally {
+            file.close();
+        }
+
+        assertRecords(new OfflineJournal(mFile).load(), "a", "bc");
+        assertEquals(validLength, mFile.length());
+    }
+
+    @Test
+    public void stopsAtCorruptedRecord() throws IOException {
+        OfflineJournal journal = new OfflineJournal(mFile);
+        journal.append(records("a", "bc", "def"));
+        journal.close();
+        // 第二条记录的内容在[8 + 1 + 8, 8 + 1 + 8 + 2)
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(17);
+            file.write('x');
+        } finally {
+            file.close();
+        }
+
+        assertRecords(new OfflineJournal(mFile).load(), "a");
+        assertEquals(9, mFile.length());
+    }
+
+    @Test
+    public void rewriteReplacesRecords() throws IOException {
+        OfflineJournal journal = new OfflineJournal(mFile);
+        journal.append(records("a", "bc"));
+        journal.rewrite(Arrays.asList("z".getBytes()));
+        journal.append(records("y"));
+        journal.close();
+
+        assertRecords(new OfflineJournal(mFile).load(), "z", "y");
+    }
+}
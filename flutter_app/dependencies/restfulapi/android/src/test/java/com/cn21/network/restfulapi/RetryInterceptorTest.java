@@ -0,0 +1,52 @@
+package com.cn21.network.restfulapi;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryInterceptorTest {
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    @Test
+    public void parsesHttpDate() {
+        assertEquals(784111777000L, RetryInterceptor.parseHttpDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(784111777000L, RetryInterceptor.parseHttpDate(" Sun, 06 Nov 1994 08:49:37 GMT "));
+        assertEquals(-1, RetryInterceptor.parseHttpDate("Sunday, 06-Nov-94"));
+        assertEquals(-1, RetryInterceptor.parseHttpDate(null));
+    }
+
+    @Test
+    public void parsesRetryAfterSeconds() {
+        assertEquals(120000, RetryInterceptor.parseRetryAfter("120"));
+        assertEquals(0, RetryInterceptor.parseRetryAfter("0"));
+        assertEquals(3000, RetryInterceptor.parseRetryAfter(" 3 "));
+        // 负数按立即重试
+        assertEquals(0, RetryInterceptor.parseRetryAfter("-5"));
+    }
+
+    @Test
+    public void parsesRetryAfterDate() {
+        long delay = RetryInterceptor.parseRetryAfter(httpDate(System.currentTimeMillis() + 60000));
+        // HTTP日期只精确到秒
+        assertTrue(delay > 58000 && delay <= 60000);
+        assertEquals(0, RetryInterceptor.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    public void rejectsInvalidRetryAfter() {
+        assertEquals(-1, RetryInterceptor.parseRetryAfter(null));
+        assertEquals(-1, RetryInterceptor.parseRetryAfter(""));
+        assertEquals(-1, RetryInterceptor.parseRetryAfter("soon"));
+    }
+}
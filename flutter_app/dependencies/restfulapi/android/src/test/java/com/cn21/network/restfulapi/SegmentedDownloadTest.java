@@ -0,0 +1,42 @@
+package com.cn21.network.restfulapi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SegmentedDownloadTest {
+    @Test
+    public void parsesContentRange() {
+        assertArrayEquals(new long[]{0, 0, 12345}, SegmentedDownload.parseContentRange("bytes 0-0/12345"));
+        assertArrayEquals(new long[]{1024, 2047, 4096},
+                SegmentedDownload.parseContentRange("bytes 1024-2047/4096"));
+    }
+
+    @Test
+    public void unknownTotalLength() {
+        assertArrayEquals(new long[]{0, 0, -1}, SegmentedDownload.parseContentRange("bytes 0-0/*"));
+        assertEquals(-1, SegmentedDownload.parseTotalLength("bytes 0-0/*"));
+    }
+
+    @Test
+    public void totalLength() {
+        assertEquals(12345, SegmentedDownload.parseTotalLength("bytes 0-0/12345"));
+        assertEquals(-1, SegmentedDownload.parseTotalLength(null));
+        assertEquals(-1, SegmentedDownload.parseTotalLength("bytes */12345"));
+    }
+
+    @Test
+    public void rejectsMalformedContentRange() {
+        assertNull(SegmentedDownload.parseContentRange(null));
+        assertNull(SegmentedDownload.parseContentRange(""));
+        assertNull(SegmentedDownload.parseContentRange("items 0-0/10"));
+        assertNull(SegmentedDownload.parseContentRange("bytes 0-0"));
+        assertNull(SegmentedDownload.parseContentRange("bytes */10"));
+        assertNull(SegmentedDownload.parseContentRange("bytes a-b/10"));
+        // end小于start或超出总长度
+        assertNull(SegmentedDownload.parseContentRange("bytes 10-5/100"));
+        assertNull(SegmentedDownload.parseContentRange("bytes 0-100/100"));
+    }
+}
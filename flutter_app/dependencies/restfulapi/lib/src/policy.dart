@@ -42,6 +42,78 @@ const kPcy_http_readTimeoutMs = "http.readTimeout";
 /// HTTP发送超时时间（毫秒）
 const kPcy_http_writeTimeoutMs = "http.writeTimeout";
 
+/// HTTP连接池最大空闲连接数
+const kPcy_http_maxIdleConnections = "http.maxIdleConnections";
+
+/// HTTP连接池空闲连接保活时间（毫秒）
+const kPcy_http_keepAliveDurationMs = "http.keepAliveDuration";
+
+/// 直接在请求结果中返回body的最大长度（字节），更大或长度未知的body以流的形式返回
+const kPcy_http_inlineBodyLimit = "http.inlineBodyLimit";
+
+/// 流式响应的消费方暂停（不授予额度）超过该时间（毫秒）后以超时错误结束请求，
+/// 不设置或不大于0时一直等待直到请求取消。与读超时无关，暂停读取不会被当作网络错误
+const kPcy_http_responseStallTimeoutMs = "http.responseStallTimeout";
+
+/// client空闲超过该时间（毫秒）后由原生端自动关闭，不设置或不大于0时不自动关闭
+const kPcy_http_idleTimeoutMs = "http.idleTimeout";
+
+/// 请求body的压缩方式，true或"gzip"为gzip，"deflate"为deflate，不设置时不压缩
+const kPcy_http_compressRequest = "http.compressRequest";
+
+/// 压缩请求body的最小长度（字节），长度已知且小于该值的body不压缩，默认为1024
+const kPcy_http_compressMinSize = "http.compressMinSize";
+
+/// client内存响应缓存的最大字节数，不设置或不大于0时不缓存。
+/// 未过期的响应直接从缓存返回，过期的响应使用ETag/Last-Modified重新验证
+const kPcy_http_memoryCacheSize = "http.memoryCacheSize";
+
+/// 磁盘缓存目录，相对路径时位于应用的缓存目录中，不设置时不使用磁盘缓存。
+/// 使用同一目录的client共享缓存
+const kPcy_http_cacheDir = "http.cacheDir";
+
+/// 磁盘缓存的最大字节数，默认为20M
+const kPcy_http_cacheSize = "http.cacheSize";
+
+/// 磁盘缓存策略，[kCachePolicy_respect]（默认）、[kCachePolicy_force]或[kCachePolicy_offlineFallback]
+const kPcy_http_cachePolicy = "http.cachePolicy";
+
+/// 缓存策略为[kCachePolicy_force]时强制缓存的秒数
+const kPcy_http_cacheForceSeconds = "http.cacheForceSeconds";
+
+/// 缓存策略：按响应头缓存
+const kCachePolicy_respect = "respect";
+
+/// 缓存策略：忽略响应头，成功的GET响应强制缓存[kPcy_http_cacheForceSeconds]秒
+const kCachePolicy_force = "force";
+
+/// 缓存策略：按响应头缓存，网络请求失败时使用缓存（即使已过期）
+const kCachePolicy_offlineFallback = "offlineFallback";
+
+/// 是否合并正在执行的相同GET/HEAD请求（bool），合并后共享同一个响应
+const kPcy_http_coalesceRequests = "http.coalesceRequests";
+
+/// 原生端重试的最大尝试次数（包括第一次），不大于1时不重试
+const kPcy_retry_maxAttempts = "retry.maxAttempts";
+
+/// 重试退避的基础时间（毫秒），每次重试的等待上限加倍并随机选择等待时间
+const kPcy_retry_baseDelayMs = "retry.baseDelay";
+
+/// 重试的最大等待时间（毫秒），Retry-After超过该值时不再重试
+const kPcy_retry_maxDelayMs = "retry.maxDelay";
+
+/// 需要重试的响应状态码（List<int>），默认为408、429、500、502、503、504
+const kPcy_retry_statusCodes = "retry.statusCodes";
+
+/// 需要重试的原生异常类名（List<String>），默认为超时、连接及DNS解析失败等
+const kPcy_retry_exceptions = "retry.exceptions";
+
+/// 是否重试非幂等的请求（如POST），默认为false
+const kPcy_retry_nonIdempotent = "retry.nonIdempotent";
+
+/// 创建client时在原生端预先解析的host（List<String>），解析结果由所有client共享
+const kPcy_dns_prefetchHosts = "dns.prefetchHosts";
+
 /// 策略配置辅佐类
 class PolicyConfigurator {
   final PolicyContext policy;
@@ -56,4 +128,63 @@ class PolicyConfigurator {
   int get writeTimeoutMillis => policy[kPcy_http_writeTimeoutMs];
   set writeTimeoutMillis(int duration) =>
       policy.setPolicy(kPcy_http_writeTimeoutMs, duration);
+  int get maxIdleConnections => policy[kPcy_http_maxIdleConnections];
+  set maxIdleConnections(int count) =>
+      policy.setPolicy(kPcy_http_maxIdleConnections, count);
+  int get keepAliveDurationMillis => policy[kPcy_http_keepAliveDurationMs];
+  set keepAliveDurationMillis(int duration) =>
+      policy.setPolicy(kPcy_http_keepAliveDurationMs, duration);
+  int get inlineBodyLimit => policy[kPcy_http_inlineBodyLimit];
+  set inlineBodyLimit(int bytes) =>
+      policy.setPolicy(kPcy_http_inlineBodyLimit, bytes);
+  int get responseStallTimeoutMillis =>
+      policy[kPcy_http_responseStallTimeoutMs];
+  set responseStallTimeoutMillis(int duration) =>
+      policy.setPolicy(kPcy_http_responseStallTimeoutMs, duration);
+  int get idleTimeoutMillis => policy[kPcy_http_idleTimeoutMs];
+  set idleTimeoutMillis(int duration) =>
+      policy.setPolicy(kPcy_http_idleTimeoutMs, duration);
+  dynamic get compressRequest => policy[kPcy_http_compressRequest];
+  set compressRequest(dynamic encoding) =>
+      policy.setPolicy(kPcy_http_compressRequest, encoding);
+  int get compressMinSize => policy[kPcy_http_compressMinSize];
+  set compressMinSize(int bytes) =>
+      policy.setPolicy(kPcy_http_compressMinSize, bytes);
+  int get memoryCacheSize => policy[kPcy_http_memoryCacheSize];
+  set memoryCacheSize(int bytes) =>
+      policy.setPolicy(kPcy_http_memoryCacheSize, bytes);
+  String get cacheDir => policy[kPcy_http_cacheDir];
+  set cacheDir(String dir) => policy.setPolicy(kPcy_http_cacheDir, dir);
+  int get cacheSize => policy[kPcy_http_cacheSize];
+  set cacheSize(int bytes) => policy.setPolicy(kPcy_http_cacheSize, bytes);
+  String get cachePolicy => policy[kPcy_http_cachePolicy];
+  set cachePolicy(String cachePolicy) =>
+      policy.setPolicy(kPcy_http_cachePolicy, cachePolicy);
+  int get cacheForceSeconds => policy[kPcy_http_cacheForceSeconds];
+  set cacheForceSeconds(int seconds) =>
+      policy.setPolicy(kPcy_http_cacheForceSeconds, seconds);
+  bool get coalesceRequests => policy[kPcy_http_coalesceRequests];
+  set coalesceRequests(bool enabled) =>
+      policy.setPolicy(kPcy_http_coalesceRequests, enabled);
+  int get retryMaxAttempts => policy[kPcy_retry_maxAttempts];
+  set retryMaxAttempts(int attempts) =>
+      policy.setPolicy(kPcy_retry_maxAttempts, attempts);
+  int get retryBaseDelayMillis => policy[kPcy_retry_baseDelayMs];
+  set retryBaseDelayMillis(int duration) =>
+      policy.setPolicy(kPcy_retry_baseDelayMs, duration);
+  int get retryMaxDelayMillis => policy[kPcy_retry_maxDelayMs];
+  set retryMaxDelayMillis(int duration) =>
+      policy.setPolicy(kPcy_retry_maxDelayMs, duration);
+  List<int> get retryStatusCodes => policy[kPcy_retry_statusCodes];
+  set retryStatusCodes(List<int> codes) =>
+      policy.setPolicy(kPcy_retry_statusCodes, codes);
+  List<String> get retryExceptions => policy[kPcy_retry_exceptions];
+  set retryExceptions(List<String> names) =>
+      policy.setPolicy(kPcy_retry_exceptions, names);
+  bool get retryNonIdempotent => policy[kPcy_retry_nonIdempotent];
+  set retryNonIdempotent(bool enabled) =>
+      policy.setPolicy(kPcy_retry_nonIdempotent, enabled);
+  List<String> get dnsPrefetchHosts => policy[kPcy_dns_prefetchHosts];
+  set dnsPrefetchHosts(List<String> hosts) =>
+      policy.setPolicy(kPcy_dns_prefetchHosts, hosts);
 }
@@ -524,6 +524,54 @@ class ContentType extends HeaderValue {
   String get charset => parameters["charset"];
 }
 
+/// 请求选项：将成功响应的body直接保存到该路径的文件，body不再返回给Dart
+const kReqOpt_saveToPath = "saveToPath";
+
+/// 请求选项：保存文件时的fsync策略，none（默认）、onComplete或periodic
+const kReqOpt_fsyncPolicy = "fsyncPolicy";
+
+/// 请求选项：从该路径的文件读取请求body，不再从Dart传递body内容
+const kReqOpt_bodyFilePath = "bodyFilePath";
+
+/// 请求选项：响应类型，为[kResponseType_json]时在原生端解析JSON body，
+/// 解析结果通过[Response.decodedBody]返回
+const kReqOpt_responseType = "responseType";
+
+/// 响应类型：JSON
+const kResponseType_json = "json";
+
+/// 响应类型：JSON数组，原生端边下载边解析，数组元素分批通过[Response.decodedItems]返回，
+/// 数组的位置由[kReqOpt_jsonPointer]指定
+const kResponseType_jsonStream = "jsonStream";
+
+/// 请求选项：响应类型为[kResponseType_jsonStream]时要解析的数组的JSON Pointer(RFC 6901)，
+/// 如"/data/items"，未指定时为顶层数组
+const kReqOpt_jsonPointer = "jsonPointer";
+
+/// 请求选项：响应类型为[kResponseType_jsonStream]时每批数据的最大字节数，默认64KB
+const kReqOpt_jsonBatchBytes = "jsonBatchBytes";
+
+/// 请求选项：优先级，[kPriority_interactive]、[kPriority_normal]（默认）或[kPriority_background]，
+/// 高优先级的请求先于排队中的低优先级请求执行
+const kReqOpt_priority = "priority";
+
+/// 请求选项：请求body的压缩方式，true或"gzip"为gzip，"deflate"为deflate，false为不压缩，
+/// 未指定时使用client的设置
+const kReqOpt_compressRequest = "compressRequest";
+
+/// 请求选项：请求所属的分组，可通过[RestfulClientPlugin.cancelGroup]一起取消。
+/// 使用页面容器的instanceKey作为分组时，容器销毁后自动取消
+const kReqOpt_group = "group";
+
+/// 优先级：用户正在等待的前台请求，保留有专用的并发额度
+const kPriority_interactive = "interactive";
+
+/// 优先级：普通请求
+const kPriority_normal = "normal";
+
+/// 优先级：后台请求（如统计上报、预加载），并发数受限
+const kPriority_background = "background";
+
 /// Restful Request请求类
 class Request {
   /// The HTTP method of the request. Most commonly "GET" or "POST", less
@@ -539,8 +587,12 @@ class Request {
 
   final HttpBody body;
 
+  /// 请求选项，由原生插件解释，如[kReqOpt_saveToPath]，
+  /// 也可以使用重试策略的参数（如retry.maxAttempts）覆盖client的重试策略
+  final Map<String, dynamic> options;
+
   /// Creates a new HTTP request.
-  Request(this.method, this.url, {this.headers, this.body});
+  Request(this.method, this.url, {this.headers, this.body, this.options});
 
   String toString() => "$method $url";
 }
@@ -612,7 +664,12 @@ class HttpBody {
 /// Restful的响应类
 class Response {
   Response(this.request, this.statusCode,
-      {this.reasonPhrase, this.headers, this.body});
+      {this.reasonPhrase,
+      this.headers,
+      this.body,
+      this.decodedBody,
+      this.decodedItems,
+      this.extras});
 
   /// The (frozen) request that triggered this response.
   final Request request;
@@ -627,4 +684,17 @@ class Response {
   final HttpHeaders headers;
 
   final HttpBody body;
+
+  /// 原生端解析后的body，由Map、List及基本类型组成
+  /// 仅在请求选项[kReqOpt_responseType]为[kResponseType_json]时有效
+  final dynamic decodedBody;
+
+  /// 原生端分批解析的数组元素，每个事件为一批元素，解析出错时以[HttpException]结束
+  /// 仅在请求选项[kReqOpt_responseType]为[kResponseType_jsonStream]且响应成功时有效
+  final Stream<List> decodedItems;
+
+  /// 原生端返回的附加信息，如保存文件的路径(savedPath)及字节数(savedBytes)，
+  /// 各网络阶段相对请求开始的纳秒数及连接复用、协议、TLS会话是否恢复信息(timings)，
+  /// 原生端重试后的总尝试次数(attempts)，响应的来源(cacheStatus: network、conditional、cache或memory)
+  final Map<String, dynamic> extras;
 }
@@ -3,6 +3,7 @@ import 'dart:io';
 import 'dart:typed_data';
 
 import 'package:cn21base/cn21base.dart';
+import 'package:flutter/foundation.dart' show ReadBuffer;
 import 'package:flutter/services.dart';
 import 'package:rxdart/rxdart.dart';
 
@@ -16,6 +17,9 @@ class RestfulClientPlugin {
   /// 递增的请求id
   static int sAutoIncRequestId = 100;
 
+  /// 响应body的流控窗口（字节），原生端在途未被消费的数据不超过该值
+  static const int kResponseWindow = 1024 * 1024;
+
   BodyChannelReceiver bodyChannelReceiver = BodyChannelReceiver();
 
   RestfulClientPlugin() {
@@ -52,21 +56,36 @@ class RestfulClientPlugin {
       headers[name] = values[0];
     });
 
-    Map arguments = {
+    /// 未全部缓冲的body通过channel分块发送，避免一次性读入内存
+    final HttpBody reqBody = req.body;
+    final bool streamBody = reqBody != null && !reqBody.isAllBuffered;
+    if (streamBody && (req.method == 'GET' || req.method == 'HEAD')) {
+      /// GET/HEAD不发送body，流式body会被原生端丢弃
+      throw HttpException(
+          "${req.method} request can not have a streaming body");
+    }
+
+    /// 请求选项放在前面，避免覆盖基本参数
+    Map arguments = Map.of(req.options ?? const {});
+    arguments.addAll({
       'clientId': clientId,
       'requestId': requestId,
       'method': req.method,
       'url': req.url.toString(),
       'headers': headers,
-      'body': req.body?.toBytes(),
-    };
-
-    // 开始监听此请求的回复
-    bodyChannelReceiver.startListenResponse(clientId, requestId);
+      'body': streamBody ? null : reqBody?.toBytes(),
+      'bodyStreaming': streamBody,
+      'bodyLength': reqBody?.contentLength ?? -1,
+      'responseWindow': kResponseWindow,
+    });
 
     MyHttpResponse naRes;
     try {
-      Map result = await _httpPlugin.invokeMethod('execute', arguments);
+      Future<Map> resultFuture = _httpPlugin.invokeMethod('execute', arguments);
+      if (streamBody) {
+        _sendRequestBodyByChannel(clientId, requestId, reqBody);
+      }
+      Map result = await resultFuture;
 //      BaseLog.w(TAG, ": execute result: $result");
       naRes = MyHttpResponse.fromMap(result);
     } on Exception catch (e) {
@@ -76,15 +95,15 @@ class RestfulClientPlugin {
     if (naRes != null) {
       // 原生返回了异常，继续抛出
       if (naRes.excpetion != null) {
-        bodyChannelReceiver.stopListen(clientId, requestId);
         throw HttpException("${naRes.excpetion} ${naRes.exceptionMsg}");
       }
 
       /// 构造Response对象
       HttpBody body;
+      Stream<List> decodedItems;
       if (naRes.body != null) {
-        bodyChannelReceiver.stopListen(clientId, requestId);
-        Uint8List bytes = Uint8List.fromList(naRes.body);
+        /// 小body直接在结果中返回
+        Uint8List bytes = naRes.body;
         body = HttpBody.fromBytes(
           'application/string',
           bytes,
@@ -92,19 +111,32 @@ class RestfulClientPlugin {
         );
       } else if (naRes.bodyBinaryLength != null) {
         /// 如果是通过流形式来读取body，需要在些进行监听和接收
+        /// 原生端在收到额度后才开始发送数据，因此在此时才开始监听
+        bodyChannelReceiver.startListenResponse(clientId, requestId,
+            window: kResponseWindow);
         Stream<Uint8List> stream =
             bodyChannelReceiver.consumeBody(clientId, requestId);
 //        BaseLog.i(TAG, "consumeBody from receiver: streaming");
         body = HttpBody("application/string", stream);
+      } else if (naRes.jsonItemsStreaming == true) {
+        /// 数组元素分批通过body的channel返回
+        bodyChannelReceiver.startListenResponse(clientId, requestId,
+            window: kResponseWindow);
+        decodedItems = bodyChannelReceiver
+            .consumeBody(clientId, requestId)
+            .map(_decodeJsonItems);
       }
       HttpHeaders httpHeaders = HttpHeaders();
       naRes.headers?.forEach((name, value) {
         httpHeaders.add(name, value);
       });
       return Response(req, naRes.statusCode,
-          reasonPhrase: naRes.statusMsg, headers: httpHeaders, body: body);
-    } else {
-      bodyChannelReceiver.stopListen(clientId, requestId);
+          reasonPhrase: naRes.statusMsg,
+          headers: httpHeaders,
+          body: body,
+          decodedBody: naRes.decodedBody,
+          decodedItems: decodedItems,
+          extras: naRes.extras);
     }
     return null;
   }
@@ -122,31 +154,212 @@ class RestfulClientPlugin {
     }
   }
 
-  /// 使用BasicChannel发送body内容给原生
-//  void _sendRequestBodyByChannel(int clientId, int requestId, HttpBody body) {
-//    if (body != null) {
-//      String channelName =
-//          "com.cn21.ecloud/HttpClient_${clientId}_Request_${requestId}";
-//      BasicMessageChannel<ByteData> bodyChannel =
-//          BasicMessageChannel(channelName, BinaryCodec());
-//
-//      if (body.isAllBuffered) {
-//        Uint8List bytes = body.toBytes();
-//        ByteData data = ByteData.view(bytes.buffer, )
-//        bodyChannel.send(message)
-//      } else {}
-//    }
-//  }
+  /// 取消某个client所有正在执行的请求，返回取消的请求数
+  Future<int> cancelAllRequests(int clientId) async {
+    try {
+      return await _httpPlugin.invokeMethod('cancelAllRequests', clientId);
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": cancelAllRequests $e");
+    }
+    return 0;
+  }
+
+  /// 取消分组[group]中所有正在执行的请求及下载，返回取消的请求数。
+  /// 分组由请求选项[kReqOpt_group]指定
+  Future<int> cancelGroup(String group) async {
+    try {
+      return await _httpPlugin.invokeMethod('cancelGroup', group);
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": cancelGroup $e");
+    }
+    return 0;
+  }
+
+  /// 分段并行下载[url]到[savePath]，服务器支持Range时分为最多[segments]段并行下载，
+  /// 中断后再次下载同一url到同一路径时从未完成的部分继续。
+  /// 下载进度通过[onProgress]返回（总长度未知时total为-1），
+  /// 完成后返回savedPath、savedBytes、resumedBytes及segmented，失败时返回excpetion及exceptionMsg
+  Future<Map> download(int clientId, String url, String savePath,
+      {Map<String, String> headers,
+      int segments,
+      String priority,
+      String group,
+      void onProgress(int received, int total)}) async {
+    final int requestId = ++sAutoIncRequestId;
+    BasicMessageChannel progressChannel;
+    if (onProgress != null) {
+      progressChannel = BasicMessageChannel(
+          "com.cn21.ecloud/HttpClient_${clientId}_Progress_${requestId}",
+          StandardMessageCodec());
+      progressChannel.setMessageHandler((message) async {
+        onProgress(message['received'], message['total']);
+        return null;
+      });
+    }
+    try {
+      return await _httpPlugin.invokeMethod('download', {
+        'clientId': clientId,
+        'requestId': requestId,
+        'url': url,
+        'savePath': savePath,
+        'headers': headers,
+        'segments': segments,
+        'priority': priority,
+        'group': group,
+      });
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": download $e");
+    } finally {
+      progressChannel?.setMessageHandler(null);
+    }
+    return null;
+  }
+
+  /// 将请求加入原生端持久化的离线请求队列，请求写入磁盘后返回其id。
+  /// 请求在网络可用时执行，[key]相同的请求按加入的顺序依次执行，
+  /// 结果通过[offlineListen]设置的回调返回。请求的body需要已全部缓冲。
+  Future<String> offlineEnqueue(Request req, {String key}) async {
+    Map headers = {};
+    req.headers?.forEach((name, values) {
+      headers[name] = values[0];
+    });
+    try {
+      return await _httpPlugin.invokeMethod('offlineEnqueue', {
+        'key': key,
+        'method': req.method,
+        'url': req.url.toString(),
+        'headers': headers,
+        'body': req.body?.toBytes(),
+      });
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": offlineEnqueue $e");
+    }
+    return null;
+  }
+
+  /// 监听离线请求的完成事件，返回尚未完成的请求数。
+  /// 事件包括id、key、method、url，以及statusCode和body（不超过64K）或excpetion和exceptionMsg，
+  /// 处理完事件后需要调用[offlineAck]，否则应用重启后再次监听时会重新收到该事件
+  Future<int> offlineListen(void onCompleted(Map event)) async {
+    BasicMessageChannel eventChannel = BasicMessageChannel(
+        "com.cn21.ecloud/HttpClient_OfflineQueue", StandardMessageCodec());
+    eventChannel.setMessageHandler((message) async {
+      onCompleted(message);
+      return null;
+    });
+    try {
+      return await _httpPlugin.invokeMethod('offlineListen');
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": offlineListen $e");
+    }
+    return null;
+  }
+
+  /// 确认已处理离线请求的完成事件，原生端随后删除该请求
+  void offlineAck(String id) async {
+    try {
+      await _httpPlugin.invokeMethod('offlineAck', id);
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": offlineAck $e");
+    }
+  }
+
+  /// 预先建立到[urls]的连接（只有host时使用https），连接保留在client的连接池中，
+  /// 注意原生端会实际向每个url发送一个HEAD请求（只有host时为https://host/），
+  /// 该请求不重试、不使用缓存，也不计入统计。
+  /// 返回每个url的结果：url、success、durationMs，失败时还有exceptionMsg
+  Future<List> preconnect(int clientId, List<String> urls) async {
+    try {
+      return await _httpPlugin
+          .invokeMethod('preconnect', {'clientId': clientId, 'urls': urls});
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": preconnect $e");
+    }
+    return null;
+  }
+
+  /// 删除client的磁盘缓存及内存缓存中url以[urlPrefix]开头的缓存，返回删除的数量
+  Future<int> purgeCache(int clientId, String urlPrefix) async {
+    try {
+      return await _httpPlugin.invokeMethod(
+          'purgeCache', {'clientId': clientId, 'urlPrefix': urlPrefix});
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": purgeCache $e");
+    }
+    return 0;
+  }
+
+  /// 设置后台（[kPriority_background]）请求的上传及下载限速（字节/秒），不大于0时不限制。
+  /// 只在有前台请求正在执行时限速
+  Future<void> setBandwidthLimit(
+      {int uploadBytesPerSecond = 0, int downloadBytesPerSecond = 0}) async {
+    try {
+      await _httpPlugin.invokeMethod('setBandwidthLimit', {
+        'upload': uploadBytesPerSecond,
+        'download': downloadBytesPerSecond,
+      });
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": setBandwidthLimit $e");
+    }
+  }
+
+  /// 获取原生端的运行统计信息
+  /// 指定[clientId]时只返回该client的统计信息（包括内存缓存的命中、重新验证及淘汰次数memoryCache），
+  /// 否则还包括所有client共享的DNS缓存命中情况(dnsHits、dnsStaleHits、dnsMisses)
+  /// 及每个优先级的排队数、执行数和排队时间(lanes)，TLS握手及会话恢复的次数和比例(tls)，有请求的分组数(groups)
+  /// 以及每个client的请求数、连接数及空闲时间(clients)和执行请求的线程数(threads)，
+  /// 还包括按host及状态码类别(failed、1xx~5xx)统计的延迟直方图和流量(histograms)，
+  /// 延迟为从发起请求(包括排队)到收到响应头的微秒数，包括count、mean、p50、p90、p95、p99、max，
+  /// 流量为bytesIn、bytesOut，intervalMs为统计周期的长度。
+  /// [resetHistograms]为true时读取后清零直方图及流量，开始新的统计周期
+  Future<Map> stats([int clientId, bool resetHistograms = false]) async {
+    Map arguments;
+    if (clientId != null || resetHistograms) {
+      arguments = {'clientId': clientId, 'resetHistograms': resetHistograms};
+    }
+    try {
+      return await _httpPlugin.invokeMethod('stats', arguments);
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": stats $e");
+    }
+    return null;
+  }
+
+  /// 使用BasicChannel分块发送body内容给原生
+  /// 每块数据在原生端回复后才发送下一块，原生端据此进行流控，
+  /// 发送null表示body结束
+  void _sendRequestBodyByChannel(
+      int clientId, int requestId, HttpBody body) async {
+    String channelName =
+        "com.cn21.ecloud/HttpClient_${clientId}_Request_${requestId}";
+    BasicMessageChannel<ByteData> bodyChannel =
+        BasicMessageChannel(channelName, BinaryCodec());
+    try {
+      await for (Uint8List chunk in body.contentStream) {
+        await bodyChannel.send(ByteData.view(
+            chunk.buffer, chunk.offsetInBytes, chunk.lengthInBytes));
+      }
+      await bodyChannel.send(null);
+    } on Exception catch (e) {
+      BaseLog.w(TAG, ": sendRequestBody $e");
+      cancelRequest(clientId, requestId);
+    }
+  }
 }
 
 /// Body二进制数据接收器
+/// 每个消息的第一个字节为类型：0之后为数据，其它为出错信息，出错时数据流以[HttpException]结束；
+/// 收到null表示正常结束
 class BodyChannelReceiver {
   static const TAG = "BodyChannelReceiver";
   Map<String, BasicMessageChannel<ByteData>> mBodyChannels = {};
   Map<String, StreamController<Uint8List>> mBodyCompleters = {};
+  Map<String, ResponseFlowControl> mFlowControls = {};
 
   /// 开始监听body结果
-  void startListenResponse(int clientId, int requestId) {
+  /// [window]大于0时启用流控，数据被消费后才向原生端补充额度，
+  /// 否则只通知原生端已开始监听，之后不限制额度
+  void startListenResponse(int clientId, int requestId, {int window = 0}) {
     String channelName = buildChannelName(clientId, requestId);
 
     /// 因为stream的listener监听有先有后，为了保证所有的listener都接收到全部的数据，
@@ -157,12 +370,26 @@ class BodyChannelReceiver {
     int recieveCount = 0;
     BasicMessageChannel<ByteData> bodyChannel =
         BasicMessageChannel(channelName, BinaryCodec());
+    ResponseFlowControl flowControl =
+        window > 0 ? ResponseFlowControl(bodyChannel, window) : null;
     bodyChannel.setMessageHandler((ByteData byteData) {
-      if (byteData != null) {
+      if (byteData != null && byteData.getUint8(0) != _kFrameData) {
+        /// 原生端出错(包括读取过慢被放弃)，不能作为正常结束
+        Map error = _frameCodec.decodeMessage(ByteData.view(byteData.buffer,
+            byteData.offsetInBytes + 1, byteData.lengthInBytes - 1));
+        controller.addError(HttpException(
+            "${error['excpetion']} ${error['exceptionMsg']}"));
+        controller.close();
+        bodyChannel.setMessageHandler(null);
+      } else if (byteData != null) {
 //        BaseLog.d(
-//            TAG, "$channelName receive byte: ${byteData.buffer.lengthInBytes}");
-        recieveCount += byteData.buffer.lengthInBytes;
-        controller.add(byteData.buffer.asUint8List());
+//            TAG, "$channelName receive byte: ${byteData.lengthInBytes}");
+        /// 第一个字节为消息类型，额度按整个消息的长度计算
+        recieveCount += byteData.lengthInBytes;
+        Uint8List chunk = byteData.buffer.asUint8List(
+            byteData.offsetInBytes + 1, byteData.lengthInBytes - 1);
+        flowControl?.onReceived(chunk, recieveCount);
+        controller.add(chunk);
       } else {
 //        BaseLog.d(TAG,
 //            "$channelName receive byte: null. Channel Completed. totalCount: $recieveCount");
@@ -177,6 +404,13 @@ class BodyChannelReceiver {
     });
 
     mBodyChannels[channelName] = bodyChannel;
+    mFlowControls[channelName] = flowControl;
+    if (flowControl != null) {
+      flowControl.start();
+    } else {
+      /// 不启用流控时也要通知原生端已开始监听，原生端收到后才开始发送
+      bodyChannel.send(ByteData(8));
+    }
 //    BaseLog.d(TAG, "startListenResponse $channelName started.");
   }
 
@@ -185,10 +419,19 @@ class BodyChannelReceiver {
 //    BaseLog.d(TAG, "consumeBody clientId: $clientId, requestId: $requestId");
     String channelName = buildChannelName(clientId, requestId);
     StreamController<Uint8List> controller = mBodyCompleters[channelName];
+    ResponseFlowControl flowControl = mFlowControls[channelName];
     if (controller != null) {
       /// 删除此对象的引用
       mBodyChannels[channelName] = null;
       mBodyCompleters[channelName] = null;
+      mFlowControls[channelName] = null;
+      if (flowControl != null) {
+        /// 数据被监听者取走后才补充额度
+        return controller.stream.map((chunk) {
+          flowControl.onConsumed(chunk);
+          return chunk;
+        });
+      }
       return controller.stream;
     } else {
       return null;
@@ -207,6 +450,7 @@ class BodyChannelReceiver {
 
     mBodyChannels[channelName] = null;
     mBodyCompleters[channelName] = null;
+    mFlowControls[channelName] = null;
   }
 
   String buildChannelName(int clientId, int requestId) {
@@ -214,6 +458,63 @@ class BodyChannelReceiver {
   }
 }
 
+/// body channel上消息的类型，为消息的第一个字节
+const int _kFrameData = 0;
+
+const StandardMessageCodec _frameCodec = StandardMessageCodec();
+
+/// 解析一批数组元素：依次编码的多个值
+List _decodeJsonItems(Uint8List batch) {
+  final ReadBuffer buffer = ReadBuffer(
+      ByteData.view(batch.buffer, batch.offsetInBytes, batch.lengthInBytes));
+  List items = [];
+  while (buffer.hasRemaining) {
+    items.add(_frameCodec.readValue(buffer));
+  }
+  return items;
+}
+
+/// 响应body的流控
+/// 原生端只在额度内发送数据，额度以8字节大端整数的形式通过body的channel发送。
+/// 开始监听时授予[window]的初始额度，之后每当数据被消费超过半个窗口时补充额度。
+class ResponseFlowControl {
+  final BasicMessageChannel<ByteData> channel;
+  final int window;
+
+  /// 已授予的额度总量
+  int _granted;
+
+  /// 记录每个数据块结束时的累计接收字节数
+  final Expando<int> _chunkEnds = Expando<int>();
+
+  ResponseFlowControl(this.channel, this.window) : _granted = 0;
+
+  void start() {
+    _grant(window);
+  }
+
+  void onReceived(Uint8List chunk, int receivedBytes) {
+    _chunkEnds[chunk] = receivedBytes;
+  }
+
+  void onConsumed(Uint8List chunk) {
+    int consumed = _chunkEnds[chunk];
+    if (consumed == null) {
+      return;
+    }
+    int target = consumed + window;
+    int credit = target - _granted;
+    if (credit >= window ~/ 2) {
+      _grant(credit);
+    }
+  }
+
+  void _grant(int credit) {
+    _granted += credit;
+    channel.send(ByteData(8)..setInt64(0, credit));
+  }
+}
+
 /// 解析Native传递回来的Response
 class MyHttpResponse {
   int statusCode;
@@ -222,6 +523,12 @@ class MyHttpResponse {
   Uint8List body;
   int bodyBinaryLength;
 
+  /// 原生端解析后的body
+  dynamic decodedBody;
+
+  /// 为true时数组元素分批通过body的channel返回
+  bool jsonItemsStreaming;
+
   /// *可选*内容的编号，通过调用onMessageHandler去接收二进制数据(当bodyBinaryLength>0时有效)
   /// [可选]如果有异常如TimeoutException, IOException, CancelException
   String excpetion;
@@ -229,14 +536,36 @@ class MyHttpResponse {
   /// [可选]异常具体信息
   String exceptionMsg;
 
-  MyHttpResponse.fromMap(map) {
+  /// 以上字段以外的附加信息
+  Map<String, dynamic> extras = {};
+
+  static const _baseKeys = [
+    'statusCode',
+    'statusMsg',
+    'headers',
+    'body',
+    'bodyBinaryLength',
+    'decodedBody',
+    'jsonItemsStreaming',
+    'excpetion',
+    'exceptionMsg',
+  ];
+
+  MyHttpResponse.fromMap(Map map) {
     statusCode = map['statusCode'];
     statusMsg = map['statusMsg'];
     headers = map['headers'];
     body = map['body'];
 
     bodyBinaryLength = map['bodyBinaryLength'];
+    decodedBody = map['decodedBody'];
+    jsonItemsStreaming = map['jsonItemsStreaming'];
     excpetion = map['excpetion'];
     exceptionMsg = map['exceptionMsg'];
+    map.forEach((key, value) {
+      if (!_baseKeys.contains(key)) {
+        extras[key] = value;
+      }
+    });
   }
 }
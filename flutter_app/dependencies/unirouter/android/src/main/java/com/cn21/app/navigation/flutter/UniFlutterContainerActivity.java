@@ -51,6 +51,10 @@ public class UniFlutterContainerActivity extends NewBoostFlutterActivity impleme
     protected void onDestroy() {
 //        Log.e(TAG, "=================> onDestroy#" + this.hashCode() + ":" + getContainerName()+" and instanceKey=" + getInstanceKey());
         super.onDestroy();
+        // 配置变化导致的重建不算销毁
+        if(isFinishing()) {
+            delegator.notifyDestroyed(this);
+        }
     }
 
     @Override
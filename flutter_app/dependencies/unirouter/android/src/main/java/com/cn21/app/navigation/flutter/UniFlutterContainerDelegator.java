@@ -1,8 +1,10 @@
 package com.cn21.app.navigation.flutter;
 
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.idlefish.flutterboost.interfaces.IContainerRecord;
@@ -12,6 +14,10 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class UniFlutterContainerDelegator {
+    // 容器销毁时发送的本地广播，其它插件(如restfulapi)可以据此释放与该容器相关的资源，
+    // restfulapi不依赖本插件，修改时需要同步修改RestfulClientPlugin中的定义
+    public static final String ACTION_CONTAINER_DESTROYED = "com.cn21.app.navigation.action.CONTAINER_DESTROYED";
+    public static final String EXTRA_INSTANCE_KEY = "instanceKey";
     private HashMap<String, Object> containerParams = new HashMap<>(2);
     private Uri uri;
     private String instanceKey;
@@ -94,6 +100,18 @@ public class UniFlutterContainerDelegator {
         return instanceKey != null? instanceKey : "";
     }
 
+    /**
+     * 通知容器已销毁，通过LocalBroadcastManager发送，只在本进程内传递
+     * */
+    public void notifyDestroyed(Context context) {
+        if(context == null || !ready()) {
+            return;
+        }
+        Intent intent = new Intent(ACTION_CONTAINER_DESTROYED);
+        intent.putExtra(EXTRA_INSTANCE_KEY, instanceKey);
+        LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+    }
+
     public String getContainerUrl() {
         if(uri == null) {
             return "";
@@ -107,6 +107,11 @@ public class UniFlutterContainerFragment extends NewFlutterFragment implements I
     public void onDestroy() {
 //        Log.e(TAG, "+++++++++++++++++> onDestroy:" + getContainerUrl()+" and instanceKey=" + getInstanceKey());
         super.onDestroy();
+        // 配置变化导致的重建不算销毁
+        Activity activity = getActivity();
+        if(activity != null && !activity.isChangingConfigurations()) {
+            delegator.notifyDestroyed(activity);
+        }
     }
 
     @Override